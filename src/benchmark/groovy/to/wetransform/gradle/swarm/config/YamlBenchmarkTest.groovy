@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config
+
+import static org.junit.Assert.*
+
+import org.junit.Test
+import org.yaml.snakeyaml.DumperOptions
+import org.yaml.snakeyaml.Yaml
+
+/**
+ * Compares the per call cost of creating Yaml instances for each call with
+ * the reused instances of ConfigHelper. Run with <code>gradle benchmark</code>,
+ * it is not part of the regular tests.
+ *
+ * @author Simon Templer
+ */
+class YamlBenchmarkTest {
+
+  private static final int ITERATIONS = 5000
+
+  private static final Map SERVICE = [
+    image: 'nginx:latest',
+    ports: ['80:80', '443:443'],
+    environment: [VIRTUAL_HOST: 'example.com', LETSENCRYPT: true],
+    deploy: [replicas: 2, resources: [limits: [memory: '512M']]]
+  ]
+
+  private static String dumpNewInstance(Object object) {
+    DumperOptions options = new DumperOptions()
+    options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK)
+    Yaml yaml = new Yaml(options)
+    StringWriter writer = new StringWriter()
+    yaml.dump(object, writer)
+    writer.toString()
+  }
+
+  private static Object loadNewInstance(String text) {
+    new Yaml().load(text)
+  }
+
+  /**
+   * Average time of an action in microseconds.
+   */
+  private static double measure(Closure action) {
+    // warm up
+    ITERATIONS.times { action() }
+
+    long start = System.nanoTime()
+    ITERATIONS.times { action() }
+    (System.nanoTime() - start) / 1000d / ITERATIONS
+  }
+
+  @Test
+  void testDump() {
+    assertEquals(dumpNewInstance(SERVICE), ConfigHelper.toYaml(SERVICE))
+
+    double before = measure { dumpNewInstance(SERVICE) }
+    double after = measure { ConfigHelper.toYaml(SERVICE) }
+
+    println String.format('YAML dump: %.1f us per call with new instances, %.1f us with reused instances',
+      before, after)
+  }
+
+  @Test
+  void testLoad() {
+    String text = ConfigHelper.toYaml(SERVICE)
+    assertEquals(SERVICE, ConfigHelper.parseYaml(text))
+
+    double before = measure { loadNewInstance(text) }
+    double after = measure { ConfigHelper.parseYaml(text) }
+
+    println String.format('YAML load: %.1f us per call with new instances, %.1f us with reused instances',
+      before, after)
+  }
+}
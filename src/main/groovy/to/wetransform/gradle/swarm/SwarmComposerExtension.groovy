@@ -65,6 +65,17 @@ class SwarmComposerExtension {
    */
   boolean swarmScriptsPerSetup = true
 
+  /**
+   * If tasks for stacks, setups and builds should be registered lazily.
+   * If enabled, tasks are only created and configured if they are actually
+   * required, e.g. because they are part of the task graph.
+   * Configuration files of setups are then also only collected on demand.
+   *
+   * Note that with lazy registration, tasks for builds that are disabled
+   * are still registered, but are skipped on execution.
+   */
+  boolean lazyTaskRegistration = false
+
   /**
    * Docker configuration applied to the Gradle Docker plugin.
    */
@@ -16,35 +16,45 @@
 package to.wetransform.gradle.swarm
 
 import groovy.json.JsonOutput
-import groovy.json.JsonSlurper
 
 import java.util.function.Supplier
 import java.util.regex.Pattern
 
+import javax.inject.Inject
+
+import org.gradle.api.Action
+import org.gradle.api.DefaultTask
 import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.api.Task
 import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Provider
+import org.gradle.api.tasks.TaskProvider
 import org.gradle.api.tasks.bundling.Jar
+import org.gradle.build.event.BuildEventsListenerRegistry
 
 import com.bmuschko.gradle.docker.DockerRegistryCredentials
 import com.bmuschko.gradle.docker.tasks.image.DockerBuildImage
 import com.bmuschko.gradle.docker.tasks.image.DockerPushImage
 
+import to.wetransform.gradle.swarm.actions.assemble.template.PebbleAssembler
 import to.wetransform.gradle.swarm.actions.assemble.template.TemplateAssembler
+import to.wetransform.gradle.swarm.config.ConfigCacheService
 import to.wetransform.gradle.swarm.config.ConfigHelper
+import to.wetransform.gradle.swarm.config.SettingsIndex
 import to.wetransform.gradle.swarm.config.SetupConfiguration
+import to.wetransform.gradle.swarm.config.VaultFile
 import to.wetransform.gradle.swarm.config.pebble.PebbleCachingEvaluator
 import to.wetransform.gradle.swarm.config.pebble.RootOrLocalMap
 import to.wetransform.gradle.swarm.crypt.ConfigCryptor
 import to.wetransform.gradle.swarm.crypt.SimpleConfigCryptor
 import to.wetransform.gradle.swarm.crypt.alice.AliceCryptor
+import to.wetransform.gradle.swarm.crypt.gcm.GcmCryptor
 import to.wetransform.gradle.swarm.tasks.Assemble
+import to.wetransform.gradle.swarm.tasks.AssembleSetup
 
 class SwarmComposerPlugin implements Plugin<Project> {
 
-  private static final Map<String, Object> DEFAULT_SC_CONFIG = [:]
-
   private static final String PLAIN_FILE_IDENTIFIER = 'secret'
 
   private static final String ENCRYPTED_FILE_IDENTIFIER = 'vault'
@@ -53,10 +63,23 @@ class SwarmComposerPlugin implements Plugin<Project> {
 
   private final Map<String, groovy.text.Template> cachedTemplates = [:]
 
+  private final BuildEventsListenerRegistry listenerRegistry
+
+  private final SettingsIndex settingsIndex = new SettingsIndex()
+
+  @Inject
+  SwarmComposerPlugin(BuildEventsListenerRegistry listenerRegistry) {
+    this.listenerRegistry = listenerRegistry
+  }
+
   void apply(Project project) {
     // register extension
     project.extensions.create('composer', SwarmComposerExtension, project)
 
+    // cache of parsed configuration files is cleared at the end of the build
+    def configCache = project.gradle.sharedServices.registerIfAbsent('swarmComposerConfigCache', ConfigCacheService) {}
+    listenerRegistry.onTaskCompletion(configCache)
+
     project.afterEvaluate { p ->
       if (project.composer.enableBuilds) {
         project.apply(plugin: 'com.bmuschko.docker-remote-api')
@@ -140,9 +163,6 @@ class SwarmComposerPlugin implements Plugin<Project> {
             setupsDir.eachDir { setupDir ->
               def setup = setupDir.name
 
-              def configFiles = []
-              configFiles.addAll(stackConfigFiles)
-
               // load swarm composer config for setup
               def scConfig = loadSettings(setupDir)
 
@@ -158,32 +178,47 @@ class SwarmComposerPlugin implements Plugin<Project> {
                 }
               }
 
-              def extendedSetups = collectExtendedConfigs(project, setupsDir, setup, scConfig)
-              project.logger.info("Setup $setup extends these setups: $extendedSetups")
+              def collectSetupConfigFiles = {
+                def configFiles = []
+                configFiles.addAll(stackConfigFiles)
 
-              // add configuration for extended setups
-              try {
-                extendedSetups.each { extended ->
-                  configFiles.addAll(collectConfigFiles(project, setupsDir, extended))
+                def extendedSetups = collectExtendedConfigs(project, setupsDir, setup, scConfig)
+                project.logger.info("Setup $setup extends these setups: $extendedSetups")
+
+                // add configuration for extended setups
+                try {
+                  extendedSetups.each { extended ->
+                    configFiles.addAll(collectConfigFiles(project, setupsDir, extended))
+                  }
+                } catch (e) {
+                  throw new RuntimeException('Error collecting configuration files from extended setups', e)
                 }
-              } catch (e) {
-                throw new RuntimeException('Error collecting configuration files from extended setups', e)
-              }
 
-              // add configuration for this setup
-              configFiles.addAll(collectConfigFiles(project, setupsDir, setup))
+                // add configuration for this setup
+                configFiles.addAll(collectConfigFiles(project, setupsDir, setup))
 
-              project.logger.info("Setup $setup uses these configuration files:\n${configFiles.join('\n')}\n")
+                project.logger.info("Setup $setup uses these configuration files:\n${configFiles.join('\n')}\n")
+
+                configFiles
+              }
 
               def sc = new SetupConfiguration(
                 stackFile: stackFile,
                 stackName: name,
                 setupName: setup,
-                configFiles: configFiles,
-                settings: scConfig,
+                // copy, as the settings may be adapted per stack
+                settings: new LinkedHashMap(scConfig),
                 builds: stackBuilds.asImmutable(),
                 setupDir: setupDir)
 
+              if (project.composer.lazyTaskRegistration) {
+                // only collect configuration files when needed
+                sc.configFilesResolver = collectSetupConfigFiles
+              }
+              else {
+                sc.configFiles = collectSetupConfigFiles()
+              }
+
               configureSetup(project, sc)
             }
           }
@@ -212,7 +247,7 @@ class SwarmComposerPlugin implements Plugin<Project> {
               stackName: name,
               setupName: 'default',
               configFiles: configFiles,
-              settings: scConfig,
+              settings: new LinkedHashMap(scConfig),
               builds: stackBuilds.asImmutable(),
               setupDir: null)
 
@@ -224,41 +259,11 @@ class SwarmComposerPlugin implements Plugin<Project> {
   }
 
   Map loadSettings(File setupDir) {
-    def scConfigFile = new File(setupDir, 'swarm-composer.yml')
-    scConfigFile.exists() ? (ConfigHelper.loadYaml(scConfigFile) ?: DEFAULT_SC_CONFIG) : DEFAULT_SC_CONFIG
+    settingsIndex.getSettings(setupDir)
   }
 
   Collection collectExtendedConfigs(Project project, File setupsDir, String setupName, Map scConfig) {
-    def extend = scConfig['extends']
-    if (extend) {
-      Deque<String> toProcess = new LinkedList<>()
-      toProcess.addAll(extend)
-      Set<String> handled = new HashSet<>()
-      def result = []
-
-      while (!toProcess.empty) {
-        String candidate = toProcess.pollLast()
-
-        if (!handled.contains(candidate)) {
-          // add to result
-          result << candidate
-
-          // check candidate for direct dependencies
-          def candConfig = loadSettings(new File(setupsDir, candidate))
-          def candExtend = candConfig['extends']
-          if (candExtend) {
-            candExtend.reverse().each {
-              toProcess.addFirst(it)
-            }
-          }
-        }
-      }
-
-      result.reverse() // reverse to have correct extension order
-    }
-    else {
-      []
-    }
+    settingsIndex.getExtended(setupsDir, setupName)
   }
 
   Collection collectConfigFiles(Project project, File setupsDir, String setupName,
@@ -272,20 +277,90 @@ class SwarmComposerPlugin implements Plugin<Project> {
       includes: includes,
       excludes: ['swarm-composer.yml'])
 
+    // with a password, encrypted files are decrypted in memory
+    Provider<String> password = vaultPasswordProvider(project, setupName)
+    boolean hasPassword = password.present
+
     setupConfig.asCollection().collect { file ->
       def name = file.name
 
-      // for secret files use plain counterpart
       if (name.contains(".${ENCRYPTED_FILE_IDENTIFIER}.")) {
-        def plain = name.replaceAll("\\.${ENCRYPTED_FILE_IDENTIFIER}\\.",
-          ".${PLAIN_FILE_IDENTIFIER}.")
-        def neighbor = new File(file.parentFile, plain)
-        neighbor
+        if (hasPassword) {
+          // password is resolved when the configuration is loaded, so it is not part of the task state
+          new VaultFile(file, password)
+        }
+        else {
+          // for secret files use plain counterpart
+          def plain = name.replaceAll("\\.${ENCRYPTED_FILE_IDENTIFIER}\\.",
+            ".${PLAIN_FILE_IDENTIFIER}.")
+          def neighbor = new File(file.parentFile, plain)
+          neighbor
+        }
+      }
+      else if (hasPassword && name.contains(".${PLAIN_FILE_IDENTIFIER}.")) {
+        // plain counterpart is not used if the encrypted file is decrypted in memory
+        def encrypted = name.replaceAll("\\.${PLAIN_FILE_IDENTIFIER}\\.",
+          ".${ENCRYPTED_FILE_IDENTIFIER}.")
+        new File(file.parentFile, encrypted).exists() ? null : file
       }
       else {
         file
       }
-    }.unique()
+    }.findAll().unique()
+  }
+
+  /**
+   * Determine the vault password for a setup.
+   *
+   * @param project the project
+   * @param setupName the setup name
+   * @return the password configured for the setup or the default password,
+   *   <code>null</code> if none is configured
+   */
+  String vaultPassword(Project project, String setupName) {
+    def password = project.findProperty("vault_password_${setupName}")
+    if (!password) {
+      password = project.findProperty("vault_password")
+    }
+    password ? password.toString() : null
+  }
+
+  /**
+   * Create a provider for the vault password of a setup.
+   *
+   * @param project the project
+   * @param setupName the setup name
+   * @return the provider of the password configured for the setup or the
+   *   default password
+   */
+  Provider<String> vaultPasswordProvider(Project project, String setupName) {
+    project.providers.gradleProperty("vault_password_${setupName}")
+      .orElse(project.providers.gradleProperty('vault_password'))
+  }
+
+  /**
+   * Determine the salt used for most values of an encrypted configuration.
+   *
+   * @param config the encrypted configuration, may be <code>null</code>
+   * @return the salt, <code>null</code> if there are no values encrypted with
+   *   {@link GcmCryptor}
+   */
+  String vaultSalt(Map config) {
+    Map<String, Integer> counts = [:]
+    Closure visit
+    visit = { value ->
+      if (value instanceof Map) {
+        value.values().each(visit)
+      }
+      else if (value != null) {
+        String salt = GcmCryptor.getSalt(value.toString())
+        if (salt) {
+          counts[salt] = (counts[salt] ?: 0) + 1
+        }
+      }
+    }
+    visit(config)
+    counts ? counts.max { it.value }.key : null
   }
 
   String toHcl(Object config) {
@@ -325,21 +400,35 @@ class SwarmComposerPlugin implements Plugin<Project> {
     // store configuration in extension (for access for other tasks etc.)
     project.composer.configs.add(sc)
 
+    // information on Docker image builds, only determined when needed
+    Map<File, Map> buildInfos = null
+    def resolveBuilds = {
+      if (buildInfos == null) {
+        buildInfos = collectBuildInfos(project, sc)
+      }
+      buildInfos
+    }
+
     if (project.composer.enableConfigExport) {
       // task exporting the configuration (mainly for debugging purposes)
       def configTaskName = "export-config-${sc.stackName}-${sc.setupName}"
-      def exportConfigTask = project.task(configTaskName) {
+      def exportConfigTask = createTask(project, configTaskName) {
         group 'Export configuration'
-      }.doFirst {
-        // export unevaluated configuration
-        def unevaluatedFile = new File(sc.stackFile.parentFile, "${sc.setupName}-unevaluated-config.yml")
-        ConfigHelper.saveYaml(sc.unevaluated, unevaluatedFile)
-
-        // export evaluated configuration
-        def evaluatedFile = new File(sc.stackFile.parentFile, "${sc.setupName}-evaluated-config.yml")
-        // lenient evaluation so a failure does not prevent the export
-        def config = new PebbleCachingEvaluator(true, project.projectDir).evaluate(sc.unevaluated)
-        ConfigHelper.saveYaml(config, evaluatedFile)
+
+        // make sure build information is present in the configuration
+        resolveBuilds()
+
+        doFirst {
+          // export unevaluated configuration
+          def unevaluatedFile = new File(sc.stackFile.parentFile, "${sc.setupName}-unevaluated-config.yml")
+          ConfigHelper.saveYaml(sc.unevaluated, unevaluatedFile)
+
+          // export evaluated configuration
+          def evaluatedFile = new File(sc.stackFile.parentFile, "${sc.setupName}-evaluated-config.yml")
+          // lenient evaluation so a failure does not prevent the export
+          def config = new PebbleCachingEvaluator(true, project.projectDir).evaluate(sc.unevaluated)
+          ConfigHelper.saveYaml(config, evaluatedFile)
+        }
       }
 
       // make sure preparation tasks are run before export, as well as decryption
@@ -365,84 +454,89 @@ class SwarmComposerPlugin implements Plugin<Project> {
     if (project.composer.enableConfigExport) {
       // task exporting the specific configuration variables
       def configTaskName = "export-vars-${sc.stackName}-${sc.setupName}"
-      def exportVarsTask = project.task(configTaskName) {
+      def exportVarsTask = createTask(project, configTaskName) {
         group 'Export configuration variables to a file'
-      }.doFirst {
-        def exportFile = project.properties.'export-file' as String
-        def vars = project.properties.'export-vars' as String
-        assert exportFile
-        assert vars
-
-        def format = (project.properties.'export-format' as String)?.toLowerCase()
-        if (!format) {
-          // try to use file extension
-          int lastDot = exportFile.lastIndexOf('.')
-          if (lastDot >= 0) {
-            format = exportFile.substring(lastDot + 1)
+
+        // make sure build information is present in the configuration
+        resolveBuilds()
+
+        doFirst {
+          def exportFile = project.properties.'export-file' as String
+          def vars = project.properties.'export-vars' as String
+          assert exportFile
+          assert vars
+
+          def format = (project.properties.'export-format' as String)?.toLowerCase()
+          if (!format) {
+            // try to use file extension
+            int lastDot = exportFile.lastIndexOf('.')
+            if (lastDot >= 0) {
+              format = exportFile.substring(lastDot + 1)
+            }
           }
-        }
 
-        def varList = vars.split(/,/).collect{ it.trim() }
+          def varList = vars.split(/,/).collect{ it.trim() }
 
-        /*
-         * Note: when using the unevaluated config as in the export-config task
-         * for some reason references (e.g. to vault) can't be resolved.
-         *
-         * So using the evaluated config directly instead of the unevaluated one.
-         */
-        //new PebbleCachingEvaluator(false).evaluate(sc.unevaluated)
-        def config = sc.config
+          /*
+           * Note: when using the unevaluated config as in the export-config task
+           * for some reason references (e.g. to vault) can't be resolved.
+           *
+           * So using the evaluated config directly instead of the unevaluated one.
+           */
+          //new PebbleCachingEvaluator(false).evaluate(sc.unevaluated)
+          def config = sc.config
 
-        def varMap = varList.collectEntries { varname ->
-          [(varname): getConfigValue(config, varname)]
-        }
+          def varMap = varList.collectEntries { varname ->
+            [(varname): getConfigValue(config, varname)]
+          }
 
-        def writeTo = new File(exportFile)
-        if (format == 'shell' || format == 'sh') {
-          def lines = varMap.collect { String varname, value ->
-            def var = varname.replaceAll(/\W/, '_')
-            def val = JsonOutput.toJson(value)
-            //TODO properly escape/quote?
-            if (value instanceof Map || value instanceof List) {
-              // attempt to properly quote lists and maps, and wrap them in strings
-              val = JsonOutput.toJson(val)
-            }
+          def writeTo = new File(exportFile)
+          if (format == 'shell' || format == 'sh') {
+            def lines = varMap.collect { String varname, value ->
+              def var = varname.replaceAll(/\W/, '_')
+              def val = JsonOutput.toJson(value)
+              //TODO properly escape/quote?
+              if (value instanceof Map || value instanceof List) {
+                // attempt to properly quote lists and maps, and wrap them in strings
+                val = JsonOutput.toJson(val)
+              }
 
-            "${var}=${val}"
-          }
+              "${var}=${val}"
+            }
 
-          writeTo.text = lines.join('\n') + '\n'
-        }
-        else if (format == 'json') {
-          if (varMap.size() == 1 && varMap.values().iterator().next() instanceof Map) {
-            // if there is only one variable and it's value is a map, write only the value map
-            writeTo.text = JsonOutput.prettyPrint(JsonOutput.toJson(varMap.values().iterator().next()))
+            writeTo.text = lines.join('\n') + '\n'
           }
-          else {
-            // write variable map
-            writeTo.text = JsonOutput.prettyPrint(JsonOutput.toJson(varMap))
+          else if (format == 'json') {
+            if (varMap.size() == 1 && varMap.values().iterator().next() instanceof Map) {
+              // if there is only one variable and it's value is a map, write only the value map
+              writeTo.text = JsonOutput.prettyPrint(JsonOutput.toJson(varMap.values().iterator().next()))
+            }
+            else {
+              // write variable map
+              writeTo.text = JsonOutput.prettyPrint(JsonOutput.toJson(varMap))
+            }
           }
-        }
-        else if (format == 'tfvars' || format == 'hcl') {
-          if (varMap.size() == 1 && varMap.values().iterator().next() instanceof Map) {
-            // if there is only one variable and it's value is a map, write only the value map
-            writeTo.text = toHcl(varMap.values().iterator().next())
+          else if (format == 'tfvars' || format == 'hcl') {
+            if (varMap.size() == 1 && varMap.values().iterator().next() instanceof Map) {
+              // if there is only one variable and it's value is a map, write only the value map
+              writeTo.text = toHcl(varMap.values().iterator().next())
+            }
+            else {
+              // write variable map
+              writeTo.text = toHcl(varMap)
+            }
           }
           else {
-            // write variable map
-            writeTo.text = toHcl(varMap)
-          }
-        }
-        else {
-          // default to yaml
+            // default to yaml
 
-          if (varMap.size() == 1 && varMap.values().iterator().next() instanceof Map) {
-            // if there is only one variable and it's value is a map, write only the value map
-            ConfigHelper.saveYaml(varMap.values().iterator().next(), writeTo)
-          }
-          else {
-            // write variable map
-            ConfigHelper.saveYaml(varMap, writeTo)
+            if (varMap.size() == 1 && varMap.values().iterator().next() instanceof Map) {
+              // if there is only one variable and it's value is a map, write only the value map
+              ConfigHelper.saveYaml(varMap.values().iterator().next(), writeTo)
+            }
+            else {
+              // write variable map
+              ConfigHelper.saveYaml(varMap, writeTo)
+            }
           }
         }
       }
@@ -454,126 +548,133 @@ class SwarmComposerPlugin implements Plugin<Project> {
     def vaultGroup = 'Configuration vault'
 
     def purgeSecretsName = 'purgeSecrets'
-    def purgeSecretsTask = project.tasks.findByPath(purgeSecretsName)
-    if (!purgeSecretsTask) {
-      purgeSecretsTask = project.task(purgeSecretsName) {
+    if (!hasTask(project, purgeSecretsName)) {
+      createTask(project, purgeSecretsName) {
         group = vaultGroup
         description = 'Delete all plain text secret files'
       }
     }
 
-    def decryptTask
     if (sc.setupDir) {
       // encryption / decryption tasks
 
       // get password
-      def password = project.findProperty("vault_password_${sc.setupName}")
-      if (!password) {
-        password = project.findProperty("vault_password")
-      }
+      def password = vaultPassword(project, sc.setupName)
 
       if (password) {
         def encryptName = "encrypt-${sc.setupName}"
-        if (!project.tasks.findByPath(encryptName)) {
-          def encryptTask = project.task(encryptName) {
+        if (!hasTask(project, encryptName)) {
+          createTask(project, encryptName) {
             group = vaultGroup
             description = "Create encrypted vault files from plain text secret files for setup ${sc.setupName}"
-          }.doFirst {
-            ConfigCryptor cryptor = new SimpleConfigCryptor(new AliceCryptor())
 
-            def files = project.fileTree(
-              dir: sc.setupDir,
-              includes: [
-                "*.${PLAIN_FILE_IDENTIFIER}.*"
-              ]).asCollection()
-
-            files.each { plainFile ->
-              def name = plainFile.name.replaceAll("\\.${PLAIN_FILE_IDENTIFIER}\\.", ".${ENCRYPTED_FILE_IDENTIFIER}.")
-              def secretFile = new File(plainFile.parentFile, name)
-
-              /*
-               * XXX instead encrypt whole file?
-               *
-               * Advantages:
-               * - structure and comments preserved exactly
-               * - independent of file format
-               * Disadvantages:
-               * - not transparent which settings were changed in the encrypted file
-               *
-               * Both the file and the current implementation would allow handling
-               * encrypted configuration in memory without creating plain files.
-               * What stands in the way there is the fact that extended setups
-               * may have a different password protecting it.
-               */
-
-              // read, encrypt (with reference), write
-              //XXX only YAML supported right now
-              def config = ConfigHelper.loadYaml(plainFile)
-              def reference
-              if (secretFile.exists()) {
-                try {
-                  reference = ConfigHelper.loadYaml(secretFile)
-                } catch (e) {
-                  // ignore
+            doFirst {
+              def files = project.fileTree(
+                dir: sc.setupDir,
+                includes: [
+                  "*.${PLAIN_FILE_IDENTIFIER}.*"
+                ]).asCollection()
+
+              files.each { plainFile ->
+                def name = plainFile.name.replaceAll("\\.${PLAIN_FILE_IDENTIFIER}\\.", ".${ENCRYPTED_FILE_IDENTIFIER}.")
+                def secretFile = new File(plainFile.parentFile, name)
+
+                /*
+                 * XXX instead encrypt whole file?
+                 *
+                 * Advantages:
+                 * - structure and comments preserved exactly
+                 * - independent of file format
+                 * Disadvantages:
+                 * - not transparent which settings were changed in the encrypted file
+                 *
+                 * Both the file and the current implementation would allow handling
+                 * encrypted configuration in memory without creating plain files.
+                 * What stands in the way there is the fact that extended setups
+                 * may have a different password protecting it.
+                 */
+
+                // read, encrypt (with reference), write
+                //XXX only YAML supported right now
+                def config = ConfigHelper.loadYaml(plainFile)
+                def reference
+                if (secretFile.exists()) {
+                  try {
+                    reference = ConfigHelper.loadYaml(secretFile)
+                  } catch (e) {
+                    // ignore
+                  }
                 }
+
+                /*
+                 * New cryptor per file, so each file uses its own salt. If the file
+                 * was encrypted before, its salt is kept, so reused and new values
+                 * share the same derived key.
+                 */
+                ConfigCryptor cryptor = new SimpleConfigCryptor(new GcmCryptor(new AliceCryptor(),
+                  vaultSalt(reference instanceof Map ? (Map) reference : null)))
+                config = cryptor.encrypt(config, password, reference)
+                ConfigHelper.saveYaml(config, secretFile)
+                // add comment to file
+                def comment = "# Encrypted configuration"
+                secretFile.text = comment + '\n' + secretFile.text
               }
-              config = cryptor.encrypt(config, password, reference)
-              ConfigHelper.saveYaml(config, secretFile)
-              // add comment to file
-              def comment = "# Encrypted configuration"
-              secretFile.text = comment + '\n' + secretFile.text
             }
           }
         }
 
         def decryptName = "decrypt-${sc.setupName}"
-        if (!project.tasks.findByPath(decryptName)) {
-          decryptTask = project.task(decryptName) {
+        if (!hasTask(project, decryptName)) {
+          createTask(project, decryptName) {
             group = vaultGroup
             description = "Create plain text secret files from encrypted vault files for setup ${sc.setupName}"
-          }.doFirst {
-            ConfigCryptor cryptor = new SimpleConfigCryptor(new AliceCryptor())
 
-            def files = project.fileTree(
-              dir: sc.setupDir,
-              includes: [
-                "*.${ENCRYPTED_FILE_IDENTIFIER}.*"
-              ]).asCollection()
-
-            files.each { secretFile ->
-              def name = secretFile.name.replaceAll("\\.${ENCRYPTED_FILE_IDENTIFIER}\\.",
-                ".${PLAIN_FILE_IDENTIFIER}.")
-              def plainFile = new File(secretFile.parentFile, name)
-
-              // read, decrypt, write
-              //XXX only YAML supported right now
-              def config = ConfigHelper.loadYaml(secretFile)
-              config = cryptor.decrypt(config, password)
-              ConfigHelper.saveYaml(config, plainFile)
-              // add comment to file
-              def now = new Date().toInstant().toString()
-              def comment = "# Decrypted configuration last updated on ${now}\n" +
-                '# DO NOT ADD TO VERSION CONTROL'
-              plainFile.text = comment + '\n' + plainFile.text
+            doFirst {
+              ConfigCryptor cryptor = new SimpleConfigCryptor(new GcmCryptor(new AliceCryptor()))
+
+              def files = project.fileTree(
+                dir: sc.setupDir,
+                includes: [
+                  "*.${ENCRYPTED_FILE_IDENTIFIER}.*"
+                ]).asCollection()
+
+              files.each { secretFile ->
+                def name = secretFile.name.replaceAll("\\.${ENCRYPTED_FILE_IDENTIFIER}\\.",
+                  ".${PLAIN_FILE_IDENTIFIER}.")
+                def plainFile = new File(secretFile.parentFile, name)
+
+                // read, decrypt, write
+                //XXX only YAML supported right now
+                def config = ConfigHelper.loadYaml(secretFile)
+                config = cryptor.decrypt(config, password)
+                ConfigHelper.saveYaml(config, plainFile)
+                // add comment to file
+                def now = new Date().toInstant().toString()
+                def comment = "# Decrypted configuration last updated on ${now}\n" +
+                  '# DO NOT ADD TO VERSION CONTROL'
+                plainFile.text = comment + '\n' + plainFile.text
+              }
             }
           }
         }
 
         // purge task
         def purgeName = "purgeSecrets-${sc.setupName}"
-        if (!project.tasks.findByPath(purgeName)) {
-          def purgeTask = project.task(purgeName) {
+        if (!hasTask(project, purgeName)) {
+          def purgeTask = createTask(project, purgeName) {
             group = vaultGroup
             description = "Delete all plain text secret files for setup ${sc.setupName}"
-          }.doLast {
-            project.fileTree(dir: sc.setupDir,
-            includes: [
-              "*.${PLAIN_FILE_IDENTIFIER}.*"
-            ]).each { File file ->
-              file.delete()
+
+            doLast {
+              project.fileTree(dir: sc.setupDir,
+              includes: [
+                "*.${PLAIN_FILE_IDENTIFIER}.*"
+              ]).each { File file ->
+                file.delete()
+              }
             }
           }
-          purgeSecretsTask.dependsOn(purgeTask)
+          addDependencies(project, purgeSecretsName, purgeTask)
         }
       }
     }
@@ -588,10 +689,13 @@ class SwarmComposerPlugin implements Plugin<Project> {
 
     // task for assembling compose file
     def taskName = "assemble-${sc.stackName}-${sc.setupName}"
-    def task = project.task(taskName) {
+    def task = createTask(project, taskName, AssembleSetup) {
       group 'Assemble compose file'
       description desc
-    }.doFirst {
+
+      // make sure build information is present in the configuration
+      resolveBuilds()
+
       def dcConfig = sc.settings['docker-compose']
       boolean composeSupported = dcConfig == null ? false : dcConfig
 
@@ -607,38 +711,40 @@ class SwarmComposerPlugin implements Plugin<Project> {
         composeFile = project.file(targetFile)
       }
 
-      // run actual assembly of the compose/stack file
-      project.composer.assemble {
-        template = sc.stackFile
-        config = [sc.config]
-        target = composeFile
+      template.set(sc.stackFile)
+      configFiles.set(project.provider { sc.configFiles })
+      additionalConfig.set(project.provider { sc.additionalConfig })
+      stackName.set(sc.stackName)
+      setupName.set(sc.setupName)
+      configRootDir.set(sc.setupDir?.parentFile?.parentFile)
+      rootDir.set(project.rootDir)
+      target.set(composeFile)
+
+      // files referenced from templates or configuration, as recorded in a previous run
+      def manifest = project.layout.buildDirectory.file("swarm-composer/${taskName}-inputs.txt")
+      referencedFilesManifest.set(manifest)
+      referencedFiles.from(project.providers.fileContents(manifest).asText.orElse('').map { String text ->
+        text.readLines().findAll().collect { new File(it) }
+      })
+
+      TemplateAssembler engine = project.composer.templateEngine
+      if (engine instanceof PebbleAssembler && engine.getClass() == PebbleAssembler) {
+        templateRootDir.set(engine.rootDir)
+      }
+      else {
+        templateEngine = engine
+        notCompatibleWithConfigurationCache('Custom template engine configured')
       }
 
       // YAML post processors
       // XXX post processing disabled for kubernetes
-      if (!sc.yamlPostProcessors.empty && !k8sSupported) {
-        sc.yamlPostProcessors.each { Closure processor ->
-          Closure c = processor.clone()
-          // load yaml
-          def yaml = ConfigHelper.loadYaml(composeFile)
-          def changed
-          if (c.maximumNumberOfParameters == 1) {
-            // only provide yaml
-            changed = c(yaml)
-          }
-          else if (c.maximumNumberOfParameters == 2) {
-            // provide yaml and configuration
-            changed = c(yaml, sc.config)
-          }
-          else {
-            // provide yaml, configuration and target file
-            changed = c(yaml, sc.config, composeFile)
-          }
-          if (changed) {
-            ConfigHelper.saveYaml(yaml, composeFile)
-          }
-        }
+      yamlPostProcessors = sc.yamlPostProcessors
+      yamlPostProcessorCacheIds = sc.yamlPostProcessorCacheIds
+      if (!sc.yamlPostProcessors.empty) {
+        // closures from build scripts can't be serialized reliably
+        notCompatibleWithConfigurationCache('YAML post-processors configured')
       }
+      postProcessing.set(!k8sSupported)
 
       // create helper script
       def scriptConfig = sc.settings['generate-scripts']
@@ -653,105 +759,109 @@ class SwarmComposerPlugin implements Plugin<Project> {
         boolean scriptPerSetup = project.composer.swarmScriptsPerSetup || composeSupported
 
         // add a script file for convenient Docker Compose calls
-        File scriptFile = project.file(composeSupported ? "${sc.stackName}-${sc.setupName}.sh" : (scriptPerSetup ? "deploy-${sc.stackName}-${sc.setupName}.sh" : "deploy-${sc.stackName}.sh"))
-        def relPath = project.projectDir.toPath().relativize( composeFile.toPath() ).toFile().toString()
-        if (!scriptPerSetup) {
-          // path to compose file must be generalized - can only work if setup name is generally part of the path, as it is the case for the default path
-          relPath = relPath.replaceAll(Pattern.quote(sc.setupName), '\\$SETUP')
-        }
-
-        def run
-        def check = ''
-
-        boolean includeCheck = project.composer.swarmSetupChecks
-
-        if (composeSupported) {
-          run = "docker compose -f \"$relPath\" \"\$@\""
-          if (includeCheck) {
-            check = """echo "Checking if connected to a Swarm..."
-              |docker node ls
-              |if [ \$? -ne 0 ]; then
-              |  echo "Not connected to a Swarm node - continuing..."
-              |else
-              |  echo "You are connected to a Swarm node."
-              |  echo "Use Docker service or stack commands to interact with the Swarm instead of docker-compose."
-              |  exit 1
-              |fi
-              |""".stripMargin()
-          }
-        }
-        else {
-          run = "docker stack deploy --compose-file \"$relPath\" --with-registry-auth ${sc.stackName}"
-          if (includeCheck) {
-            check = """echo "Checking \\"sc-setup\\" label to check if Docker is connected to the correct Swarm..."
-              |SETUP_LABEL=\$(docker node inspect self --format "{{ index .Spec.Labels \\"sc-setup\\"}}")
-              |if [ -z "\$SETUP_LABEL" ]; then
-              |  SETUP_LABEL=\$(docker node inspect self --format "{{ index .Description.Engine.Labels \\"sc-setup\\"}}")
-              |fi
-              |if [ "\$SETUP_LABEL" != "\$SETUP" ]; then
-              |  echo "Found label for setup \\"\$SETUP_LABEL\\" instead of \\"\$SETUP\\""
-              |  echo "Please make sure you are connected to the right swarm"
-              |  exit 1
-              |fi
-              |echo "Found setup label \\"\$SETUP_LABEL\\""
-              |""".stripMargin()
-          }
+        scriptFile.set(project.file(composeSupported ? "${sc.stackName}-${sc.setupName}.sh" : (scriptPerSetup ? "deploy-${sc.stackName}-${sc.setupName}.sh" : "deploy-${sc.stackName}.sh")))
+        scriptContent.set(createDeployScript(project, sc, composeFile, composeSupported, scriptPerSetup))
+        sharedScript.set(!scriptPerSetup)
+      }
+    }
 
-          if (!scriptPerSetup) {
-            // prepend check that SETUP variable is set and that setup folder exists in `setups/` directory
-            check = """if [ -z "\$SETUP" ]; then
-              |  echo "Please set the SETUP environment variable to the setup name"
-              |  exit 1
-              |fi
-              |if [ ! -d "setups/\$SETUP" ]; then
-              |  echo "Setup \$SETUP does not exist"
-              |  exit 1
-              |fi
-              |""".stripMargin() + '\n' + check
-          }
-          else {
-            // prepend setting SETUP variable to setup name
-            check = "SETUP=${sc.setupName}\n" + check
-          }
-        }
+    // encrypted configuration files are decrypted in memory when loading the configuration,
+    // so the decrypt task is not needed as part of preparation
+    setupPrepareTasks(project, task, sc)
 
-        def gradleArgs = []
+    // configure Docker image build tasks
+    configureBuilds(project, sc, resolveBuilds)
+  }
 
-        gradleArgs.add(0, '-Pquiet=true')
-        gradleArgs << buildScriptTaskName('build', sc, scriptPerSetup)
-        if (!composeSupported) {
-          // also add push
-          gradleArgs << buildScriptTaskName('push', sc, scriptPerSetup)
-        }
+  /**
+   * Create the content of a helper script for deploying a stack.
+   *
+   * @param project the project
+   * @param sc the setup configuration
+   * @param composeFile the assembled compose file
+   * @param composeSupported if the setup is compatible to Docker Compose
+   * @param scriptPerSetup if the script is specific to the setup
+   * @return the script content
+   */
+  String createDeployScript(Project project, SetupConfiguration sc, File composeFile,
+    boolean composeSupported, boolean scriptPerSetup) {
+    def relPath = project.projectDir.toPath().relativize( composeFile.toPath() ).toFile().toString()
+    if (!scriptPerSetup) {
+      // path to compose file must be generalized - can only work if setup name is generally part of the path, as it is the case for the default path
+      relPath = relPath.replaceAll(Pattern.quote(sc.setupName), '\\$SETUP')
+    }
 
-        gradleArgs << buildScriptTaskName('assemble', sc, scriptPerSetup)
+    def run
+    def check = ''
+
+    boolean includeCheck = project.composer.swarmSetupChecks
+
+    if (composeSupported) {
+      run = "docker compose -f \"$relPath\" \"\$@\""
+      if (includeCheck) {
+        check = """echo "Checking if connected to a Swarm..."
+          |docker node ls
+          |if [ \$? -ne 0 ]; then
+          |  echo "Not connected to a Swarm node - continuing..."
+          |else
+          |  echo "You are connected to a Swarm node."
+          |  echo "Use Docker service or stack commands to interact with the Swarm instead of docker-compose."
+          |  exit 1
+          |fi
+          |""".stripMargin()
+      }
+    }
+    else {
+      run = "docker stack deploy --compose-file \"$relPath\" --with-registry-auth ${sc.stackName}"
+      if (includeCheck) {
+        check = """echo "Checking \\"sc-setup\\" label to check if Docker is connected to the correct Swarm..."
+          |SETUP_LABEL=\$(docker node inspect self --format "{{ index .Spec.Labels \\"sc-setup\\"}}")
+          |if [ -z "\$SETUP_LABEL" ]; then
+          |  SETUP_LABEL=\$(docker node inspect self --format "{{ index .Description.Engine.Labels \\"sc-setup\\"}}")
+          |fi
+          |if [ "\$SETUP_LABEL" != "\$SETUP" ]; then
+          |  echo "Found label for setup \\"\$SETUP_LABEL\\" instead of \\"\$SETUP\\""
+          |  echo "Please make sure you are connected to the right swarm"
+          |  exit 1
+          |fi
+          |echo "Found setup label \\"\$SETUP_LABEL\\""
+          |""".stripMargin()
+      }
 
-        scriptFile.text = """#!/bin/bash
-$check
-set -e
-./gradlew ${gradleArgs.join(' ')}
-$run"""
-        try {
-          [
-            'chmod',
-            'a+x',
-            scriptFile.absolutePath
-          ].execute()
-        } catch (e) {
-          // ignore
-        }
+      if (!scriptPerSetup) {
+        // prepend check that SETUP variable is set and that setup folder exists in `setups/` directory
+        check = """if [ -z "\$SETUP" ]; then
+          |  echo "Please set the SETUP environment variable to the setup name"
+          |  exit 1
+          |fi
+          |if [ ! -d "setups/\$SETUP" ]; then
+          |  echo "Setup \$SETUP does not exist"
+          |  exit 1
+          |fi
+          |""".stripMargin() + '\n' + check
+      }
+      else {
+        // prepend setting SETUP variable to setup name
+        check = "SETUP=${sc.setupName}\n" + check
       }
     }
 
-    setupPrepareTasks(project, task, sc)
+    def gradleArgs = []
 
-    // make sure decrypt task runs as part of preparation
-    if (decryptTask) {
-      project.tasks."prepareSetup-${sc.setupName}".dependsOn(decryptTask)
+    gradleArgs.add(0, '-Pquiet=true')
+    gradleArgs << buildScriptTaskName('build', sc, scriptPerSetup)
+    if (!composeSupported) {
+      // also add push
+      gradleArgs << buildScriptTaskName('push', sc, scriptPerSetup)
     }
 
-    // configure Docker image build tasks
-    configureBuilds(project, sc, task)
+    gradleArgs << buildScriptTaskName('assemble', sc, scriptPerSetup)
+
+    """#!/bin/bash
+$check
+set -e
+./gradlew ${gradleArgs.join(' ')}
+$run"""
   }
 
   String buildScriptTaskName(String taskName, SetupConfiguration sc, boolean scriptPerSetup) {
@@ -763,27 +873,24 @@ $run"""
     }
   }
 
-  void configureBuilds(Project project, final SetupConfiguration sc, def assembleTask) {
-    if (!project.composer.enableBuilds) {
-      return
-    }
-
-    // task for all builds for a stack-setup combination
-    def allName = "build-${sc.stackName}-${sc.setupName}"
-    def allTask = project.task(allName) {
-      group 'Build docker images'
-      description "Build all Docker images for stack ${sc.stackName} with setup ${sc.setupName}"
-    }
+  /**
+   * Determine information on the Docker image builds of a setup, i.e. if
+   * the build is enabled, the image tag and custom registry credentials.
+   * The image tags of enabled builds are added to the setup configuration.
+   *
+   * @param project the project
+   * @param sc the setup configuration
+   * @return the build information mapped by Dockerfile
+   */
+  Map<File, Map> collectBuildInfos(Project project, final SetupConfiguration sc) {
+    Map<File, Map> result = [:]
 
-    def pushAllName = "push-${sc.stackName}-${sc.setupName}"
-    def pushAllTask = project.task(pushAllName) {
-      group 'Push docker images'
-      description "Push all Docker images for stack ${sc.stackName} with setup ${sc.setupName}"
+    if (!project.composer.enableBuilds) {
+      return result
     }
 
+    // evaluation does not modify the configuration, so no copy is needed
     def config = sc.unevaluated
-    // hacky way to create a copy of the config
-    config = new JsonSlurper().parseText(JsonOutput.toJson(config))
     // try to evaluate config as good as possible
     try {
       config = new PebbleCachingEvaluator(true, project.projectDir).evaluate(config)
@@ -794,7 +901,6 @@ $run"""
     sc.builds.each { dFile ->
       if (dFile instanceof File && dFile.exists()) {
         final File parentDir = dFile.parentFile
-        final File tempDir = new File(parentDir, '.sc-build')
         final String buildName = parentDir.name
 
         def settings = loadSettings(parentDir)
@@ -826,7 +932,8 @@ $run"""
         }
 
         if (!enabled) {
-          // only configure build if it is enabled
+          // no further information needed if build is not enabled
+          result[dFile] = [enabled: false]
           return
         }
 
@@ -871,17 +978,14 @@ $run"""
         // custom registry credentials for a build
         def customCredentials = settings.registry_credentials
         if (customCredentials) {
-          if (customCredentials.url) {
-            // evaluate url
-            customCredentials.url = evaluateSetting(customCredentials.url, settingBinding)
-          }
-          if (customCredentials.username) {
-            // evaluate username
-            customCredentials.username = evaluateSetting(customCredentials.username, settingBinding)
-          }
-          if (customCredentials.password) {
-            // evaluate password
-            customCredentials.password = evaluateSetting(customCredentials.password, settingBinding)
+          // evaluate url, username and password
+          customCredentials = customCredentials.collectEntries { key, value ->
+            if (value && key in ['url', 'username', 'password']) {
+              [(key): evaluateSetting(value, settingBinding)]
+            }
+            else {
+              [(key): value]
+            }
           }
         }
 
@@ -905,35 +1009,88 @@ $run"""
         ]
         sc.addConfig(results)
 
-        def setupTask = project.task("setup-build-${sc.stackName}-${sc.setupName}-${buildName}").doFirst {
-          // setup Docker build context
-          tempDir.deleteDir()
-          tempDir.mkdir()
-
-          project.copy {
-            from parentDir
-            into tempDir
-            include '**/*'
-            exclude tempDir.name
-            exclude 'swarm-composer.yml'
-          }
+        result[dFile] = [enabled: true, imageTag: imageTag, credentials: customCredentials]
+      }
+    }
+
+    result
+  }
+
+  /**
+   * Configure the tasks for Docker image builds of a setup.
+   *
+   * @param project the project
+   * @param sc the setup configuration
+   * @param resolveBuilds closure providing the build information as
+   *   determined by {@link #collectBuildInfos(Project, SetupConfiguration)}
+   */
+  void configureBuilds(Project project, final SetupConfiguration sc, Closure<Map<File, Map>> resolveBuilds) {
+    if (!project.composer.enableBuilds) {
+      return
+    }
+
+    // task for all builds for a stack-setup combination
+    def allName = "build-${sc.stackName}-${sc.setupName}"
+    createTask(project, allName) {
+      group 'Build docker images'
+      description "Build all Docker images for stack ${sc.stackName} with setup ${sc.setupName}"
+    }
+
+    def pushAllName = "push-${sc.stackName}-${sc.setupName}"
+    createTask(project, pushAllName) {
+      group 'Push docker images'
+      description "Push all Docker images for stack ${sc.stackName} with setup ${sc.setupName}"
+    }
+
+    // with lazy registration tasks are created for all builds, as evaluating if
+    // a build is enabled requires the configuration
+    boolean lazy = project.composer.lazyTaskRegistration
+    Map<File, Map> eagerInfos = lazy ? null : resolveBuilds()
+
+    sc.builds.each { dFile ->
+      if (dFile instanceof File && dFile.exists()) {
+        final File parentDir = dFile.parentFile
+        final File tempDir = new File(parentDir, '.sc-build')
+        final String buildName = parentDir.name
+
+        if (!lazy && !eagerInfos[dFile]?.enabled) {
+          // only configure build if it is enabled
+          return
+        }
+
+        def setupTask = createTask(project, "setup-build-${sc.stackName}-${sc.setupName}-${buildName}") {
+          enabled = resolveBuilds()[dFile].enabled
+
+          doFirst {
+            // setup Docker build context
+            tempDir.deleteDir()
+            tempDir.mkdir()
+
+            project.copy {
+              from parentDir
+              into tempDir
+              include '**/*'
+              exclude tempDir.name
+              exclude 'swarm-composer.yml'
+            }
 
-          // evaluate templates
-          TemplateAssembler processor = project.composer.templateEngine
-          assert processor
-
-          project.fileTree(dir: tempDir, includes: ['**/*'], excludes: ['**/*.inc.*'])
-          .filter { File f -> !f.isDirectory() }
-          .each { File f ->
-            ByteArrayOutputStream result
-            def supplier = {
-              result = new ByteArrayOutputStream()
-              result
-            } as Supplier<OutputStream>
-            processor.compile(f, sc.config, supplier)
-            if (result != null) {
-              f.withOutputStream {
-                result.writeTo(it)
+            // evaluate templates
+            TemplateAssembler processor = project.composer.templateEngine
+            assert processor
+
+            project.fileTree(dir: tempDir, includes: ['**/*'], excludes: ['**/*.inc.*'])
+            .filter { File f -> !f.isDirectory() }
+            .each { File f ->
+              ByteArrayOutputStream result
+              def supplier = {
+                result = new ByteArrayOutputStream()
+                result
+              } as Supplier<OutputStream>
+              processor.compile(f, sc.config, supplier)
+              if (result != null) {
+                f.withOutputStream {
+                  result.writeTo(it)
+                }
               }
             }
           }
@@ -945,19 +1102,25 @@ $run"""
 
         boolean pullImage = Boolean.parseBoolean(project.findProperty('pull') ?: 'true')
 
-        def task = project.task("build-${sc.stackName}-${sc.setupName}-${buildName}", type: DockerBuildImage) {
+        def task = createTask(project, "build-${sc.stackName}-${sc.setupName}-${buildName}", DockerBuildImage) {
+          def info = resolveBuilds()[dFile]
+          enabled = info.enabled
+
           dependsOn setupTask
 
           dockerFile = new File(tempDir, dFile.name)
           inputDir = tempDir
           labels = ['sc-stack': sc.stackName, 'sc-setup': sc.setupName, 'sc-build': buildName]
-          images = [imageTag]
+          if (info.enabled) {
+            images = [info.imageTag]
+          }
 
           //XXX quiet seems to break build
           //quiet = quietMode
 
           pull = pullImage
 
+          def customCredentials = info.credentials
           if (customCredentials) {
             registryCredentials {
               url = customCredentials.url
@@ -970,41 +1133,99 @@ $run"""
 
           group 'Build individual image'
           description "Build \"${buildName}\" for stack ${sc.stackName} with setup ${sc.setupName}"
-        }.doLast {
-          // post processing
 
-          //TODO delete temporary artifacts?
+          doLast {
+            // post processing
+
+            //TODO delete temporary artifacts?
+          }
         }
 
-        allTask.dependsOn(task)
+        addDependencies(project, allName, task)
 
         // add push tasks
 
-        def pushTask = project.task("push-${sc.stackName}-${sc.setupName}-${buildName}", type: DockerPushImage) {
+        def pushTask = createTask(project, "push-${sc.stackName}-${sc.setupName}-${buildName}", DockerPushImage) {
+          def info = resolveBuilds()[dFile]
+          enabled = info.enabled
 
-          images = [imageTag]
+          if (info.enabled) {
+            images = [info.imageTag]
+          }
 
           group 'Push individual image'
           description "Push image for build \"${buildName}\" for stack ${sc.stackName} with setup ${sc.setupName}"
         }
 
-        pushAllTask.dependsOn(pushTask)
+        addDependencies(project, pushAllName, pushTask)
+      }
+    }
+  }
+
+  /**
+   * Create a task. Depending on the extension configuration the task
+   * is either created right away or registered for lazy creation.
+   *
+   * @param project the project
+   * @param name the task name
+   * @param type the task type
+   * @param configure the closure to configure the task with
+   * @return the created task or the provider for the registered task
+   */
+  private def createTask(Project project, String name, Class<? extends Task> type, Closure configure) {
+    if (project.composer.lazyTaskRegistration) {
+      project.tasks.register(name, type, { Task task ->
+        project.configure(task, configure)
+      } as Action<Task>)
+    }
+    else {
+      Task task = project.task(name, type: type)
+      project.configure(task, configure)
+      task
+    }
+  }
+
+  private def createTask(Project project, String name, Closure configure) {
+    createTask(project, name, DefaultTask, configure)
+  }
+
+  /**
+   * Check if a task with the given name exists, without creating
+   * tasks that were registered lazily.
+   */
+  private boolean hasTask(Project project, String name) {
+    project.tasks.names.contains(name)
+  }
+
+  /**
+   * Add dependencies to a task.
+   *
+   * @param project the project
+   * @param task the task, a task provider or the name of the task
+   * @param dependencies the dependencies to add
+   */
+  private void addDependencies(Project project, def task, Object... dependencies) {
+    if (task instanceof Task) {
+      task.dependsOn(dependencies)
+    }
+    else {
+      TaskProvider provider = task instanceof TaskProvider ? task : project.tasks.named(task.toString())
+      provider.configure { Task t ->
+        t.dependsOn(dependencies)
       }
     }
   }
 
-  private Task ensureTask(String name, String groupName, String descr, Project project) {
-    def task = project.tasks.findByPath(name)
-    if (task == null) {
-      task = project.task(name) {
+  private void ensureTask(String name, String groupName, String descr, Project project) {
+    if (!hasTask(project, name)) {
+      createTask(project, name) {
         group groupName
         description descr
       }
     }
-    task
   }
 
-  private void setupPrepareTasks(Project project, Task task, SetupConfiguration sc, String build = null) {
+  private void setupPrepareTasks(Project project, def task, SetupConfiguration sc, String build = null) {
     // prepare tasks allow for easily adding custom logic/configuration
     // in preparation for assemble and build tasks
 
@@ -1014,30 +1235,30 @@ $run"""
     // overall
 
     ensureTask('prepare', groupName, 'Preparation for all stacks and setups', project)
-    task.dependsOn('prepare')
+    addDependencies(project, task, 'prepare')
 
     if (build) {
       ensureTask('prepareBuild', groupBuild, 'Preparation for all stacks and setups', project)
-      task.dependsOn('prepareBuild')
+      addDependencies(project, task, 'prepareBuild')
     }
 
     // stack
 
     ensureTask("prepare-${sc.stackName}", groupName, "Preparation for ${sc.stackName} stack", project)
-    task.dependsOn("prepare-${sc.stackName}")
+    addDependencies(project, task, "prepare-${sc.stackName}")
 
     if (build) {
       ensureTask("prepareBuild-${sc.stackName}", groupBuild, "Preparation for ${sc.stackName} stack", project)
-      task.dependsOn("prepareBuild-${sc.stackName}")
+      addDependencies(project, task, "prepareBuild-${sc.stackName}")
 
       ensureTask("prepareBuild-${sc.stackName}-${build}", groupBuild, "Preparation for build ${build} in ${sc.stackName} stack", project)
-      task.dependsOn("prepareBuild-${sc.stackName}-${build}")
+      addDependencies(project, task, "prepareBuild-${sc.stackName}-${build}")
     }
 
     // setup
 
     ensureTask("prepareSetup-${sc.setupName}", groupName, "Preparation for setup ${sc.setupName}", project)
-    task.dependsOn("prepareSetup-${sc.setupName}")
+    addDependencies(project, task, "prepareSetup-${sc.setupName}")
   }
 
   /**
@@ -24,6 +24,7 @@ import groovy.lang.Delegate
 import java.nio.charset.StandardCharsets
 
 import org.gradle.api.Project
+import org.gradle.api.logging.Logger
 
 import to.wetransform.gradle.swarm.actions.assemble.template.TemplateAssembler
 import to.wetransform.gradle.swarm.config.ConfigEvaluator
@@ -35,22 +36,63 @@ import to.wetransform.gradle.swarm.config.ConfigEvaluator
  */
 class AssembleRunner implements AssembleConfig {
 
-  private final Project project
+  private final TemplateAssembler assembler
+
+  private final File rootDir
+
+  private final Logger logger
 
   @Delegate
   private final AssembleConfig _config
 
   AssembleRunner(Project project, AssembleConfig config) {
-    this.project = project
+    this(project.composer.templateEngine, project.rootDir, project.logger, config)
+  }
+
+  /**
+   * Create an assemble runner that does not depend on a project.
+   *
+   * @param assembler the template engine
+   * @param rootDir the root directory for evaluating the configuration
+   * @param logger the logger
+   * @param config the assemble configuration
+   */
+  AssembleRunner(TemplateAssembler assembler, File rootDir, Logger logger, AssembleConfig config) {
+    this.assembler = assembler
+    this.rootDir = rootDir
+    this.logger = logger
     this._config = config
   }
 
   void runCommand() {
+    // target file must be valid
+    File targetFile = toFile(target)
+    assert targetFile
+    assert !targetFile.isDirectory()
+
+    assemble {
+      targetFile.newOutputStream()
+    }
+  }
+
+  /**
+   * Assemble the template to memory instead of the target file.
+   *
+   * @return the assembled content
+   */
+  byte[] render() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream()
+    assemble {
+      out
+    }
+    out.toByteArray()
+  }
+
+  private void assemble(Closure<OutputStream> target) {
     // template is required
     assert template
 
     // template engine
-    TemplateAssembler assembler = project.composer.templateEngine
     assert assembler
 
     // template must exist
@@ -58,24 +100,15 @@ class AssembleRunner implements AssembleConfig {
     assert templateFile
     assert templateFile.exists()
 
-    // target file must be valid
-    File targetFile = toFile(target)
-    assert targetFile
-    assert !targetFile.isDirectory()
-
     // load configuration
-    Map<String, Object> context = loadConfig(project.rootDir, config, stackName, setupName)
+    Map<String, Object> context = loadConfig(rootDir, config, stackName, setupName)
 
-    if (project.logger.infoEnabled) {
-      project.logger.info('Context for assembling:\n' +
+    if (logger.infoEnabled) {
+      logger.info('Context for assembling:\n' +
         JsonOutput.prettyPrint(JsonOutput.toJson(context)))
     }
 
     // build template
-    targetFile.withOutputStream { out ->
-      assembler.compile(templateFile, context) {
-        out
-      }
-    }
+    assembler.compile(templateFile, context, target)
   }
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.actions.assemble
+
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+
+import to.wetransform.gradle.swarm.config.ConfigHelper
+import to.wetransform.gradle.swarm.util.LruCache
+
+/**
+ * Runs YAML post-processors on a YAML structure held in memory.
+ *
+ * Post-processors are closures taking the YAML structure, the configuration
+ * and the target file as arguments (the latter two being optional) and
+ * returning if any changes were made. Changes are done on the structure
+ * directly.
+ *
+ * Post-processors may be declared pure, meaning their result only depends on
+ * their arguments, and be given a cache identifier. The identifier must
+ * identify the post-processor including any values it captures, as closures
+ * from the same source location share their class. For pure post-processors
+ * with an identifier that only take the YAML structure as argument, the
+ * result is cached based on the identifier and a hash of the structure.
+ *
+ * @author Simon Templer
+ */
+class YamlProcessorPipeline {
+
+  /**
+   * Maximum number of cached results of pure post-processors.
+   */
+  static final int CACHE_SIZE = Integer.getInteger('swarmComposer.yamlProcessorCacheSize', 100)
+
+  /**
+   * Result of running post-processors.
+   */
+  static class Result {
+    final Map yaml
+    final boolean changed
+
+    Result(Map yaml, boolean changed) {
+      this.yaml = yaml
+      this.changed = changed
+    }
+  }
+
+  /**
+   * Cached result of a pure post-processor, with the hash of the resulting
+   * YAML structure.
+   */
+  private static class CachedResult extends Result {
+    final String hash
+
+    CachedResult(Map yaml, boolean changed, String hash) {
+      super(yaml, changed)
+      this.hash = hash
+    }
+  }
+
+  /**
+   * Results of pure post-processors, by implementation, cache identifier and
+   * hash of the input.
+   */
+  private static final LruCache<String, CachedResult> cache = new LruCache<>(CACHE_SIZE)
+
+  private final List<Closure> processors
+
+  private final List<String> cacheIds
+
+  private final List<String> implementations
+
+  /**
+   * Create a post-processor pipeline.
+   *
+   * @param processors the post-processors
+   * @param cacheIds for each post-processor, the cache identifier if it is
+   *   pure, otherwise <code>null</code>
+   * @param implementations for each post-processor, the identifier of its
+   *   implementation
+   */
+  YamlProcessorPipeline(List<Closure> processors, List<String> cacheIds, List<String> implementations) {
+    this.processors = processors
+    this.cacheIds = cacheIds
+    this.implementations = implementations
+  }
+
+  /**
+   * Run all post-processors.
+   *
+   * Post-processors that are provided with the target file may access it. If
+   * the respective closures are given, the target file is written before such
+   * a post-processor is run, and read again afterwards if the post-processor
+   * did not report changes to the YAML structure (as it may have changed the
+   * file directly).
+   *
+   * @param yaml the YAML structure, may be changed by the post-processors
+   * @param yamlHash the hash of the YAML structure (see {@link #hash(byte[])}),
+   *   may be <code>null</code>
+   * @param config the configuration
+   * @param target the target file
+   * @param beforeTargetAccess closure called with the current YAML structure
+   *   and if it changed since the target file was last written, before a
+   *   post-processor is run that is provided with the target file, may be
+   *   <code>null</code>
+   * @param afterTargetAccess closure returning the YAML structure read from
+   *   the target file, may be <code>null</code>
+   * @return the resulting YAML structure and if it changed since the target
+   *   file was last written
+   */
+  Result process(Map yaml, String yamlHash, Map config, File target, Closure beforeTargetAccess = null,
+    Closure<Map> afterTargetAccess = null) {
+    boolean changed = false
+    processors.eachWithIndex { Closure processor, int index ->
+      int parameters = processor.maximumNumberOfParameters
+      String cacheId = index < cacheIds.size() ? cacheIds[index] : null
+
+      if (beforeTargetAccess != null && parameters > 2) {
+        // post-processor may access the target file, make sure it is up-to-date
+        beforeTargetAccess(yaml, changed)
+        changed = false
+      }
+
+      if (cacheId != null && parameters == 1) {
+        String inputHash = yamlHash ?: hashStructure(yaml)
+        String key = implementations[index] + ':' + cacheId + ':' + inputHash
+        CachedResult cached = cache.computeIfAbsent(key) {
+          Result computed = run(processor, yaml, config, target)
+          Map result = copy(computed.yaml) as Map
+          new CachedResult(result, computed.changed, computed.changed ? hashStructure(result) : inputHash)
+        }
+
+        yaml = copy(cached.yaml) as Map
+        yamlHash = cached.hash
+        changed = changed || cached.changed
+      }
+      else {
+        Result result = run(processor, yaml, config, target)
+        yaml = result.yaml
+        // hash of the structure is unknown after running an uncached post-processor
+        yamlHash = null
+
+        if (afterTargetAccess != null && parameters > 2 && !result.changed) {
+          // post-processor may have changed the target file directly
+          yaml = afterTargetAccess()
+        }
+        else {
+          changed = changed || result.changed
+        }
+      }
+    }
+    new Result(yaml, changed)
+  }
+
+  /**
+   * Clear the cache of results of pure post-processors.
+   */
+  static void clearCache() {
+    cache.clear()
+  }
+
+  /**
+   * Determine the hash of a YAML document.
+   *
+   * @param yaml the YAML document
+   * @return the hash
+   */
+  static String hash(byte[] yaml) {
+    MessageDigest digest = MessageDigest.getInstance('SHA-256')
+    digest.digest(yaml).encodeHex().toString()
+  }
+
+  private static String hashStructure(Map yaml) {
+    hash(ConfigHelper.toYaml(yaml).getBytes(StandardCharsets.UTF_8))
+  }
+
+  private static Result run(Closure processor, Map yaml, Map config, File target) {
+    Closure c = processor.clone()
+    def changed
+    if (c.maximumNumberOfParameters == 1) {
+      // only provide yaml
+      changed = c(yaml)
+    }
+    else if (c.maximumNumberOfParameters == 2) {
+      // provide yaml and configuration
+      changed = c(yaml, config)
+    }
+    else {
+      // provide yaml, configuration and target file
+      changed = c(yaml, config, target)
+    }
+    new Result(yaml, changed as boolean)
+  }
+
+  /**
+   * Copy a YAML structure, so it is not affected by changes to the original.
+   */
+  private static Object copy(Object value) {
+    if (value instanceof Map) {
+      Map result = new LinkedHashMap()
+      ((Map) value).each { key, item ->
+        result.put(key, copy(item))
+      }
+      result
+    }
+    else if (value instanceof List) {
+      ((List) value).collect { copy(it) }
+    }
+    else {
+      value
+    }
+  }
+}
@@ -18,6 +18,7 @@ package to.wetransform.gradle.swarm.actions.assemble.template
 import java.text.MessageFormat
 import java.util.Iterator
 import java.util.Map
+import java.util.concurrent.ConcurrentHashMap
 import java.util.stream.Collectors
 
 import io.pebbletemplates.pebble.error.AttributeNotFoundException
@@ -35,6 +36,34 @@ public class ContextWrapper implements Iterable<Object> {
 
   private final Map contextMap
 
+  /**
+   * Wrappers created for child maps, reused as long as the child map is the same.
+   */
+  private final Map<Object, ContextWrapper> children = new ConcurrentHashMap<>()
+
+  /**
+   * Get a wrapper for a map, reusing a wrapper from the given cache if it wraps
+   * the same map instance.
+   *
+   * @param cache the wrapper cache
+   * @param key the key the map is associated to
+   * @param path the path of the map
+   * @param map the map to wrap
+   * @return the wrapper for the map
+   */
+  public static ContextWrapper cached(Map<Object, ContextWrapper> cache, Object key, String path, Map map) {
+    if (key == null) {
+      return new ContextWrapper(path, map)
+    }
+
+    ContextWrapper wrapper = cache.get(key)
+    if (wrapper == null || !wrapper.getInternalMap().is(map)) {
+      wrapper = new ContextWrapper(path, map)
+      cache.put(key, wrapper)
+    }
+    wrapper
+  }
+
   public static Map<String, Object> create(Map<String, Object> contextMap) {
     contextMap.entrySet().stream()
       .map { entry ->
@@ -64,8 +93,12 @@ public class ContextWrapper implements Iterable<Object> {
       attributeName, 0, 'unknown')
     }
     else if (value instanceof Map) {
-      String fullName = (path != null) ? (path + '.' + attributeName) : (attributeName)
-      return new ContextWrapper(fullName, (Map) value)
+      ContextWrapper wrapper = attributeName == null ? null : children.get(attributeName)
+      if (wrapper == null || !wrapper.getInternalMap().is(value)) {
+        String fullName = (path != null) ? (path + '.' + attributeName) : (attributeName)
+        wrapper = cached(children, attributeName, fullName, (Map) value)
+      }
+      return wrapper
     }
     else {
       return value
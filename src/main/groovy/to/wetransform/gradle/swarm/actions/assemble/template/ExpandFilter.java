@@ -15,6 +15,7 @@
  */
 package to.wetransform.gradle.swarm.actions.assemble.template;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -27,8 +28,11 @@ import io.pebbletemplates.pebble.template.EvaluationContext;
 import io.pebbletemplates.pebble.template.PebbleTemplate;
 
 /**
- * Filter that uses Json encoding to facilitate copying configuration into types that are not only string or boolean.
- * It uses a magix prefix and suffix for identification.
+ * Filter that facilitates copying configuration into types that are not only string or boolean.
+ *
+ * If an expansion was started for the current thread (see {@link #beginExpansion()}), the filter registers the value
+ * with the expansion and returns a handle, which is resolved to the value without any conversion. Otherwise Json
+ * encoding is used, with a magix prefix and suffix for identification.
  *
  * Note that recreating objects from the filter result is only possible if the expanded object is the only content of
  * the string.
@@ -40,6 +44,89 @@ public class ExpandFilter implements Filter {
   public static final String PREFIX = "___GSC_EXPAND(";
   public static final String SUFFIX = ")___EXPAND_GSC";
 
+  private static final String HANDLE_PREFIX = "___GSC_EXPAND_HANDLE(";
+  private static final String HANDLE_SUFFIX = ")___";
+
+  /**
+   * Values expanded during an evaluation. Instances are reused for subsequent and nested evaluations on the same
+   * thread.
+   */
+  public static final class Expansion {
+
+    private final Expansion previous;
+
+    private Expansion next;
+
+    private final List<Object> values = new ArrayList<>();
+
+    private Expansion(Expansion previous) {
+      this.previous = previous;
+    }
+
+    private String register(Object value) {
+      values.add(value);
+      return handle(values.size() - 1);
+    }
+
+    /**
+     * Resolve the result of an evaluation.
+     *
+     * @param text the evaluation result
+     * @return the expanded value if the result only consists of the handle of an expanded value, otherwise the text
+     */
+    public Object resolve(String text) {
+      if (values.isEmpty()) {
+        return text;
+      }
+
+      if (values.size() == 1 && handle(0).equals(text)) {
+        return values.get(0);
+      }
+
+      // mixed with other content, fall back to Json encoding
+      String result = text;
+      for (int i = 0; i < values.size(); i++) {
+        result = result.replace(handle(i), toJson(values.get(i)));
+      }
+      return expandString(result);
+    }
+
+    /**
+     * End the expansion. Must be called once for each call to {@link ExpandFilter#beginExpansion()}.
+     */
+    public void end() {
+      values.clear();
+      CURRENT.set(previous);
+    }
+
+    private boolean isActive() {
+      return previous != null;
+    }
+
+    private static String handle(int index) {
+      return HANDLE_PREFIX + index + HANDLE_SUFFIX;
+    }
+  }
+
+  /**
+   * The current expansion of the current thread, initially an inactive one that is the base for nested expansions.
+   */
+  private static final ThreadLocal<Expansion> CURRENT = ThreadLocal.withInitial(() -> new Expansion(null));
+
+  /**
+   * Start an expansion for an evaluation on the current thread.
+   *
+   * @return the expansion, which must be ended after the evaluation
+   */
+  public static Expansion beginExpansion() {
+    Expansion current = CURRENT.get();
+    if (current.next == null) {
+      current.next = new Expansion(current);
+    }
+    CURRENT.set(current.next);
+    return current.next;
+  }
+
   public static Object expandString(String text) {
     if (text != null && text.startsWith(PREFIX) && text.endsWith(SUFFIX)) {
       String core = text.substring(PREFIX.length(), text.length() - SUFFIX.length());
@@ -65,6 +152,15 @@ public class ExpandFilter implements Filter {
       input = ((ContextWrapper) input).getInternalMap();
     }
 
+    Expansion expansion = CURRENT.get();
+    if (expansion.isActive()) {
+      return expansion.register(input);
+    }
+
+    return toJson(input);
+  }
+
+  private static String toJson(Object input) {
     StringBuilder result = new StringBuilder();
     result.append(PREFIX);
     result.append(JsonOutput.toJson(input));
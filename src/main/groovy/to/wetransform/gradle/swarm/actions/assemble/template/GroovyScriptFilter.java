@@ -22,33 +22,68 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.codehaus.groovy.control.CompilationFailedException;
 import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.runtime.InvokerHelper;
 
 import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
 import groovy.lang.GroovyShell;
 import groovy.lang.Script;
+import groovy.transform.CompileStatic;
 import io.pebbletemplates.pebble.error.PebbleException;
 import io.pebbletemplates.pebble.extension.Filter;
 import io.pebbletemplates.pebble.template.EvaluationContext;
 import io.pebbletemplates.pebble.template.PebbleTemplate;
 import io.pebbletemplates.pebble.template.PebbleTemplateImpl;
 import to.wetransform.gradle.swarm.config.pebble.RootOrLocalMap;
+import to.wetransform.gradle.swarm.util.FileAccessRecorder;
+import to.wetransform.gradle.swarm.util.LruCache;
 
 /**
  * Filter for applying a Groovy script and returning its result.
  *
+ * Compiled script classes are cached per filter. Scripts are compiled with class loaders owned by the filter, so the
+ * classes are released together with the filter (e.g. at the end of a build). Script files with the
+ * <code>.static.groovy</code> extension are compiled with {@link CompileStatic}, variables from the binding need to be
+ * accessed explicitly via the <code>binding</code> in these scripts.
+ *
  * @author Simon Templer
  */
 public class GroovyScriptFilter implements Filter {
 
   /**
-   * Cache of script path or script content to parsed script.
-   *
-   * Note: We assume that the path to a script is never equal to a script content.
+   * Maximum number of compiled scripts that are cached.
+   */
+  static final int SCRIPT_CACHE_SIZE = Integer.getInteger("swarmComposer.scriptCacheSize", 500);
+
+  /**
+   * Compiled script class, with the modification time of the script file it was compiled from.
+   */
+  private static final class CompiledScript {
+
+    private final Class<? extends Script> scriptClass;
+
+    private final long lastModified;
+
+    private CompiledScript(Class<? extends Script> scriptClass, long lastModified) {
+      this.scriptClass = scriptClass;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * Compiler configuration for scripts compiled with {@link CompileStatic}.
    */
-  private static Map<String, Script> cachedScripts = new HashMap<>();
+  private static final CompilerConfiguration STATIC_CONFIGURATION = new CompilerConfiguration();
+
+  static {
+    STATIC_CONFIGURATION.addCompilationCustomizers(new ASTTransformationCustomizer(CompileStatic.class));
+  }
 
   /**
    * Name of the argument that provides the script content.
@@ -65,11 +100,39 @@ public class GroovyScriptFilter implements Filter {
    */
   public static final String ARGUMENT_BINDING = "with";
 
+  /**
+   * File name extension of script files that should be compiled with {@link CompileStatic}.
+   */
+  public static final String STATIC_SCRIPT_EXTENSION = ".static.groovy";
+
+  private static final AtomicInteger scriptCounter = new AtomicInteger();
+
   private File rootDir;
 
+  /**
+   * Cache of script path or script content to compiled script class.
+   *
+   * Note: We assume that the path to a script is never equal to a script content.
+   */
+  private final LruCache<String, CompiledScript> cachedScripts = new LruCache<>(SCRIPT_CACHE_SIZE);
+
+  /**
+   * Class loader for compiling dynamic scripts.
+   */
+  private final GroovyClassLoader classLoader;
+
+  /**
+   * Class loader for compiling scripts with {@link CompileStatic}.
+   */
+  private final GroovyClassLoader staticClassLoader;
+
   public GroovyScriptFilter(File rootDir) {
     super();
     this.rootDir = rootDir;
+
+    ClassLoader parent = getClass().getClassLoader();
+    this.classLoader = new GroovyClassLoader(parent, CompilerConfiguration.DEFAULT);
+    this.staticClassLoader = new GroovyClassLoader(parent, STATIC_CONFIGURATION);
   }
 
   @Override
@@ -110,6 +173,8 @@ public class GroovyScriptFilter implements Filter {
       scriptFile = null;
     }
 
+    FileAccessRecorder.accessed(scriptFile);
+
     // map for binding
     Map<String, Object> map = new HashMap<>();
 
@@ -131,29 +196,54 @@ public class GroovyScriptFilter implements Filter {
 
     Binding binding = new Binding(map);
 
-    final File fFile = scriptFile;
-    Script script = cachedScripts.computeIfAbsent(scriptContentOrPath, id -> {
-      GroovyShell shell = createShell(binding);
-      try {
-        if (fFile != null) {
-          return shell.parse(fFile);
-        } else {
-          return shell.parse(id);
-        }
-      } catch (CompilationFailedException | IOException e) {
-        throw new PebbleException(e, "Error parsing script for filter");
-      }
-    });
+    // each call uses its own script instance, so scripts may run concurrently
+    Script script = InvokerHelper.createScript(getScriptClass(scriptContentOrPath, scriptFile), binding);
+    return script.run();
+  }
 
-    synchronized (script) {
-      script.setBinding(binding);
-      return script.run();
+  /**
+   * Get the compiled script class for a script, compiled scripts are cached.
+   *
+   * @param scriptContentOrPath the script content or the path of the script file
+   * @param scriptFile the script file, <code>null</code> if the script content is provided
+   * @return the script class
+   */
+  private Class<? extends Script> getScriptClass(String scriptContentOrPath, File scriptFile) {
+    long lastModified = (scriptFile != null) ? scriptFile.lastModified() : 0;
+    CompiledScript compiled = cachedScripts.computeIfAbsent(scriptContentOrPath,
+      id -> compile(id, scriptFile, lastModified));
+
+    if (compiled.lastModified != lastModified) {
+      // script file was changed
+      cachedScripts.remove(scriptContentOrPath, compiled);
+      compiled = cachedScripts.computeIfAbsent(scriptContentOrPath, id -> compile(id, scriptFile, lastModified));
     }
+
+    return compiled.scriptClass;
   }
 
-  private GroovyShell createShell(Binding binding) {
-    CompilerConfiguration cc = new CompilerConfiguration();
-    return new GroovyShell(getClass().getClassLoader(), binding, cc);
+  private CompiledScript compile(String scriptContent, File scriptFile, long lastModified) {
+    try {
+      GroovyCodeSource source;
+      GroovyClassLoader loader;
+      if (scriptFile != null) {
+        source = new GroovyCodeSource(scriptFile, CompilerConfiguration.DEFAULT.getSourceEncoding());
+        loader = scriptFile.getName().endsWith(STATIC_SCRIPT_EXTENSION) ? staticClassLoader : classLoader;
+      } else {
+        source = new GroovyCodeSource(scriptContent, "Script" + scriptCounter.incrementAndGet() + ".groovy",
+          GroovyShell.DEFAULT_CODE_BASE);
+        loader = classLoader;
+      }
+
+      // compiled classes are cached by the filter, not by the class loader
+      Class<?> scriptClass = loader.parseClass(source, false);
+      if (!Script.class.isAssignableFrom(scriptClass)) {
+        throw new PebbleException(null, "Script for filter does not define a script: " + scriptClass.getName());
+      }
+      return new CompiledScript(scriptClass.asSubclass(Script.class), lastModified);
+    } catch (CompilationFailedException | IOException e) {
+      throw new PebbleException(e, "Error parsing script for filter");
+    }
   }
 
 }
@@ -37,7 +37,15 @@ public class GroovyScriptFunction implements Function {
    *          the project root directory for resolving absolute references
    */
   public GroovyScriptFunction(File rootDir) {
-    this.filter = new GroovyScriptFilter(rootDir);
+    this(new GroovyScriptFilter(rootDir));
+  }
+
+  /**
+   * @param filter
+   *          the filter used to run scripts
+   */
+  public GroovyScriptFunction(GroovyScriptFilter filter) {
+    this.filter = filter;
   }
 
   @Override
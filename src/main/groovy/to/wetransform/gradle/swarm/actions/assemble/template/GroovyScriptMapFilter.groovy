@@ -34,7 +34,11 @@ class GroovyScriptMapFilter implements Filter {
   private final GroovyScriptFilter filter
 
   GroovyScriptMapFilter(File rootDir) {
-    this.filter = new GroovyScriptFilter(rootDir)
+    this(new GroovyScriptFilter(rootDir))
+  }
+
+  GroovyScriptMapFilter(GroovyScriptFilter filter) {
+    this.filter = filter
   }
 
   @Override
@@ -16,10 +16,13 @@
 package to.wetransform.gradle.swarm.actions.assemble.template;
 
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Wraps a map and returns {@link ContextWrapper}s for all children of type map.
@@ -32,6 +35,12 @@ public class LazyContextWrapper implements Map<String, Object> {
 
   private final Map<String, Object> decoratee;
 
+  /**
+   * Wrappers created for child maps, so repeated lookups don't create new
+   * wrappers.
+   */
+  private final Map<Object, ContextWrapper> wrappers = new ConcurrentHashMap<>();
+
   public LazyContextWrapper(Map<String, Object> decoratee) {
     super();
     this.decoratee = decoratee;
@@ -66,7 +75,11 @@ public class LazyContextWrapper implements Map<String, Object> {
   public Object get(Object key) {
     Object value = decoratee.get(key);
     if (value instanceof Map) {
-      value = new ContextWrapper(key.toString(), (Map) value);
+      ContextWrapper wrapper = key == null ? null : wrappers.get(key);
+      if (wrapper == null || wrapper.getInternalMap() != value) {
+        wrapper = ContextWrapper.cached(wrappers, key, key.toString(), (Map) value);
+      }
+      value = wrapper;
     }
     return value;
   }
@@ -98,19 +111,26 @@ public class LazyContextWrapper implements Map<String, Object> {
 
   @Override
   public Collection<Object> values() {
-    return entrySet().stream().map(e -> e.getValue()).collect(Collectors.toList());
+    Set<Map.Entry<String, Object>> entries = entrySet();
+    List<Object> result = new ArrayList<>(entries.size());
+    for (Map.Entry<String, Object> entry : entries) {
+      result.add(entry.getValue());
+    }
+    return result;
   }
 
   @SuppressWarnings("rawtypes")
   @Override
   public Set<java.util.Map.Entry<String, Object>> entrySet() {
-    return decoratee.entrySet().stream().map(entry -> {
+    Set<Map.Entry<String, Object>> result = new LinkedHashSet<>();
+    for (Map.Entry<String, Object> entry : decoratee.entrySet()) {
       Object value = entry.getValue();
       if (value instanceof Map) {
-        value = new ContextWrapper(entry.getKey(), (Map) value);
+        value = ContextWrapper.cached(wrappers, entry.getKey(), entry.getKey(), (Map) value);
       }
-      return new AbstractMap.SimpleEntry<String, Object>(entry.getKey(), value);
-    }).collect(Collectors.toSet());
+      result.add(new AbstractMap.SimpleEntry<String, Object>(entry.getKey(), value));
+    }
+    return result;
   }
 
 }
@@ -19,12 +19,11 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-import org.yaml.snakeyaml.Yaml;
-
 import io.pebbletemplates.pebble.error.PebbleException;
 import io.pebbletemplates.pebble.extension.Filter;
 import io.pebbletemplates.pebble.template.EvaluationContext;
 import io.pebbletemplates.pebble.template.PebbleTemplate;
+import to.wetransform.gradle.swarm.config.ConfigHelper;
 
 /**
  * Filter that parses YAML from input an input string to a map/list structure.
@@ -45,10 +44,9 @@ public class ParseYamlFilter implements Filter {
       return null;
     }
 
-    Yaml yaml = new Yaml();
     String toParse = input.toString();
     try {
-      return yaml.load(toParse); // TODO also support loading multiple yaml documents with loadAll?
+      return ConfigHelper.parseYaml(toParse); // TODO also support loading multiple yaml documents with loadAll?
     } catch (Exception e) {
       // include string to parse in exception for easier debugging
       throw new PebbleException(e, "Error parsing Yaml:\n" + toParse);
@@ -37,11 +37,14 @@ public class PebbleAssembler implements TemplateAssembler {
 
   private final PebbleEngine engine;
 
+  private final File rootDir;
+
   public PebbleAssembler() {
     this(null);
   }
 
   public PebbleAssembler(File rootDir) {
+    this.rootDir = rootDir;
     engine = new PebbleEngine.Builder()
       .newLineTrimming(false)
       .autoEscaping(false)
@@ -54,6 +57,14 @@ public class PebbleAssembler implements TemplateAssembler {
       .build();
   }
 
+  /**
+   * @return the root directory used to resolve relative file paths, may be
+   *         <code>null</code>
+   */
+  public File getRootDir() {
+    return rootDir;
+  }
+
   @Override
   public void compile(File template, Map<String, Object> context, Supplier<OutputStream> target)
     throws PebbleException, IOException {
@@ -15,12 +15,16 @@
  */
 package to.wetransform.gradle.swarm.actions.assemble.template;
 
-import java.util.Collections;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -31,10 +35,19 @@ import io.pebbletemplates.pebble.template.EvaluationContext;
 import io.pebbletemplates.pebble.template.PebbleTemplate;
 import to.wetransform.gradle.swarm.config.pebble.PebbleCachingEvaluator;
 import to.wetransform.gradle.swarm.config.pebble.RootOrLocalMap;
+import to.wetransform.gradle.swarm.util.FileAccessRecorder;
 
 /**
  * Filter for filtering iterables with a custom template expression as predicate.
  *
+ * The predicate is compiled once per filter call and evaluated for each item with the item available as
+ * <code>it</code>.
+ *
+ * Predicates can be evaluated in parallel, which is enabled with the <code>parallel</code> argument or for all
+ * filters with the {@link SwarmComposerExtension#PARALLEL_PREDICATES_PROPERTY} system property. The order of the items
+ * is kept in any case. Predicates used in configuration values are always evaluated on the current thread, so
+ * evaluation loops are detected.
+ *
  * @author Simon Templer
  */
 public class PredicateFilter implements Filter {
@@ -43,26 +56,59 @@ public class PredicateFilter implements Filter {
     FILTER, ANY_MATCH, ALL_MATCH, NONE_MATCH, FIRST
   }
 
-  private static final String RESULT_KEY = "___result";
+  private static final String ITEM_KEY = "it";
 
   /**
    * Name of predicate argument.
    */
   public static final String ARGUMENT_PREDICATE = "predicate";
 
+  /**
+   * Name of the argument to enable or disable parallel evaluation.
+   */
+  public static final String ARGUMENT_PARALLEL = "parallel";
+
+  /**
+   * Scope for evaluating the predicate for an item.
+   */
+  private static class ItemScope {
+
+    private final Map<String, Object> item = new HashMap<>(2);
+
+    private final Map<String, Object> scope;
+
+    public ItemScope(EvaluationContext context, boolean lenient) {
+      Map<String, Object> scope = new RootOrLocalMap(item,
+        new EvaluationContextMap(context), // TODO instead a Map based on the ScopeChain in EvaluationContextImpl?
+        false, false);
+      if (!lenient) {
+        scope = new LazyContextWrapper(scope);
+      }
+      this.scope = scope;
+    }
+  }
+
   private final PebbleCachingEvaluator evaluator;
 
   private final PredicateFilterType type;
 
+  private final SwarmComposerExtension extension;
+
   public PredicateFilter(PebbleCachingEvaluator evaluator, PredicateFilterType type) {
+    this(evaluator, type, null);
+  }
+
+  public PredicateFilter(PebbleCachingEvaluator evaluator, PredicateFilterType type,
+    SwarmComposerExtension extension) {
     super();
     this.evaluator = evaluator;
     this.type = type;
+    this.extension = extension;
   }
 
   @Override
   public List<String> getArgumentNames() {
-    return Collections.singletonList(ARGUMENT_PREDICATE);
+    return Arrays.asList(ARGUMENT_PREDICATE, ARGUMENT_PARALLEL);
   }
 
   @Override
@@ -73,40 +119,70 @@ public class PredicateFilter implements Filter {
       return input;
     }
 
-    StringBuilder predString = new StringBuilder();
-    predString.append("{{ ");
-    predString.append(pred);
-    predString.append(" }}");
+    PebbleTemplate template = evaluator.getTemplate("{{ " + pred + " }}");
 
-    Predicate<Object> predicate = item -> {
-      Map<String, Object> map = new HashMap<>();
-      map.put("it", item);
-      map.put(RESULT_KEY, predString.toString());
+    Object parallelValue = args.get(ARGUMENT_PARALLEL);
+    boolean parallel = (parallelValue != null) ? Boolean.parseBoolean(parallelValue.toString())
+      : extension != null && extension.isParallelPredicates();
+    if (parallel && PebbleCachingEvaluator.isEvaluatingConfiguration()) {
+      // evaluation loops are only detected on the thread evaluating the configuration
+      parallel = false;
+    }
 
-      map = new RootOrLocalMap(map,
-        new EvaluationContextMap(context), // TODO instead a Map based on the ScopeChain in EvaluationContextImpl?
-        false, false);
+    // scope is reused for all items (per thread), only the item is replaced
+    boolean lenient = evaluator.isLenient();
+    Supplier<ItemScope> scopes;
+    if (parallel) {
+      ThreadLocal<ItemScope> threadScopes = ThreadLocal.withInitial(() -> new ItemScope(context, lenient));
+      scopes = threadScopes::get;
+    } else {
+      ItemScope scope = new ItemScope(context, lenient);
+      scopes = () -> scope;
+    }
 
-      Map<String, Object> eval = evaluator.evaluate(map);
+    Predicate<Object> test = value -> {
+      ItemScope scope = scopes.get();
+      scope.item.put(ITEM_KEY, value);
+
+      StringWriter writer = new StringWriter();
+      try {
+        template.evaluate(writer, scope.scope);
+      } catch (IOException e) {
+        throw new PebbleException(e, "Error evaluating predicate " + pred);
+      }
 
-      Object res = eval.get(RESULT_KEY);
-      if (res instanceof Boolean) {
-        return (boolean) res;
+      String res = writer.toString();
+      if ("true".equals(res)) {
+        return true;
+      } else if ("false".equals(res)) {
+        return false;
       }
       throw new IllegalStateException("result must be boolean");
     };
 
+    Predicate<Object> predicate;
+    if (parallel) {
+      // files accessed on other threads belong to the recording of the caller
+      FileAccessRecorder.Recording recording = FileAccessRecorder.current();
+      predicate = value -> FileAccessRecorder.withRecording(recording, () -> test.test(value));
+    } else {
+      predicate = test;
+    }
+
     if (input instanceof ContextWrapper) {
       input = ((ContextWrapper) input).getInternalMap();
     }
 
     if (input instanceof Map<?, ?>) {
       @SuppressWarnings({"unchecked", "rawtypes"})
-      Stream<Entry<?, ?>> stream = StreamSupport.stream(((Map) input).entrySet().spliterator(), false);
+      Stream<Entry<?, ?>> stream = StreamSupport.stream(((Map) input).entrySet().spliterator(), parallel);
 
       switch (type) {
         case FILTER :
-          return stream.filter(predicate).collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue()));
+          // keep the order of the entries
+          Map<Object, Object> result = new LinkedHashMap<>();
+          stream.filter(predicate).forEachOrdered(e -> result.put(e.getKey(), e.getValue()));
+          return result;
         case FIRST :
           return stream.filter(predicate).findFirst().orElse(null);
         case ANY_MATCH :
@@ -119,7 +195,7 @@ public class PredicateFilter implements Filter {
           throw new IllegalStateException("Unrecognized filter type: " + type.name());
       }
     } else if (input instanceof Iterable<?>) {
-      Stream<?> stream = StreamSupport.stream(((Iterable<?>) input).spliterator(), false);
+      Stream<?> stream = StreamSupport.stream(((Iterable<?>) input).spliterator(), parallel);
 
       switch (type) {
         case FILTER :
@@ -29,6 +29,7 @@ import io.pebbletemplates.pebble.extension.Function;
 import io.pebbletemplates.pebble.template.EvaluationContext;
 import io.pebbletemplates.pebble.template.PebbleTemplate;
 import io.pebbletemplates.pebble.template.PebbleTemplateImpl;
+import to.wetransform.gradle.swarm.util.FileAccessRecorder;
 
 /**
  * Functions that reads a file and encodes as a base64 string.
@@ -75,6 +76,8 @@ public class ReadFileBase64Function implements Function {
       file = Paths.get(path);
     }
 
+    FileAccessRecorder.accessed(file.toFile());
+
     try {
       byte[] bytes = Files.readAllBytes(file);
       return Base64.getEncoder().encodeToString(bytes);
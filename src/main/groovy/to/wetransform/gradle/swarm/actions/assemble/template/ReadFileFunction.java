@@ -30,6 +30,7 @@ import io.pebbletemplates.pebble.extension.Function;
 import io.pebbletemplates.pebble.template.EvaluationContext;
 import io.pebbletemplates.pebble.template.PebbleTemplate;
 import io.pebbletemplates.pebble.template.PebbleTemplateImpl;
+import to.wetransform.gradle.swarm.util.FileAccessRecorder;
 
 /**
  * Functions that reads a file as String.
@@ -76,6 +77,8 @@ public class ReadFileFunction implements Function {
       file = Paths.get(path);
     }
 
+    FileAccessRecorder.accessed(file.toFile());
+
     try {
       return Files.readAllLines(file, StandardCharsets.UTF_8).stream().collect(Collectors.joining("\n"));
     } catch (IOException e) {
@@ -34,6 +34,7 @@ import io.pebbletemplates.pebble.template.EvaluationContext;
 import io.pebbletemplates.pebble.template.EvaluationContextImpl;
 import io.pebbletemplates.pebble.template.PebbleTemplate;
 import io.pebbletemplates.pebble.template.PebbleTemplateImpl;
+import to.wetransform.gradle.swarm.util.FileAccessRecorder;
 
 /**
  * Functions that processes a template like an include and returns it as string.
@@ -98,6 +99,12 @@ public class ReadTemplateFunction implements Function {
           // absolute path
           absolutePath = true;
           templateName = ReadFileFunction.resolvePath((PebbleTemplateImpl) self, rootDir, templateName);
+          FileAccessRecorder.accessed(new File(templateName));
+        } else {
+          File templateFile = new File(((PebbleTemplateImpl) self).resolveRelativePath(templateName));
+          if (templateFile.isAbsolute()) {
+            FileAccessRecorder.accessed(templateFile);
+          }
         }
         ((PebbleTemplateImpl) self).includeTemplate(writer, (EvaluationContextImpl) context, templateName, addVars);
       } catch (IOException e) {
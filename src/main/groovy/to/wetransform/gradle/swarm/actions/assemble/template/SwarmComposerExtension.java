@@ -37,6 +37,14 @@ import to.wetransform.gradle.swarm.config.pebble.PebbleCachingEvaluator;
  */
 public class SwarmComposerExtension extends AbstractExtension {
 
+  /**
+   * System property that, if set to <code>true</code>, enables evaluating the predicates of predicate filters (like
+   * <code>filter</code> or <code>anyMatch</code>) in parallel. This is the global switch, as the template engines of
+   * the plugin create their own extension instances. Can be set for a Gradle build via
+   * <code>systemProp.swarmComposer.parallelPredicates=true</code> in <code>gradle.properties</code>.
+   */
+  public static final String PARALLEL_PREDICATES_PROPERTY = "swarmComposer.parallelPredicates";
+
   private Map<String, Filter> filters = new HashMap<>();
   private Map<String, Function> functions = new HashMap<>();
   private Map<String, Test> tests = new HashMap<>();
@@ -46,6 +54,8 @@ public class SwarmComposerExtension extends AbstractExtension {
 
   private boolean smartFiltersInitialized = false;
 
+  private volatile boolean parallelPredicates = Boolean.getBoolean(PARALLEL_PREDICATES_PROPERTY);
+
   public SwarmComposerExtension(boolean lenient, File rootDir) {
     super();
     this.lenient = lenient;
@@ -61,9 +71,11 @@ public class SwarmComposerExtension extends AbstractExtension {
     filters.put("merge", new MergeFilter());
     filters.put("flatten", new FlattenFilter());
 
-    filters.put("apply", new GroovyScriptFilter(rootDir));
-    filters.put("map", new GroovyScriptMapFilter(rootDir));
-    functions.put("run", new GroovyScriptFunction(rootDir));
+    // share script compilation
+    GroovyScriptFilter scriptFilter = new GroovyScriptFilter(rootDir);
+    filters.put("apply", scriptFilter);
+    filters.put("map", new GroovyScriptMapFilter(scriptFilter));
+    functions.put("run", new GroovyScriptFunction(scriptFilter));
 
     functions.put("generatePassword", new GeneratePasswordFunction());
 
@@ -89,11 +101,11 @@ public class SwarmComposerExtension extends AbstractExtension {
     synchronized (this) {
       if (!smartFiltersInitialized) {
         PebbleCachingEvaluator evaluator = new PebbleCachingEvaluator(lenient, this);
-        filters.put("filter", new PredicateFilter(evaluator, PredicateFilterType.FILTER));
-        filters.put("anyMatch", new PredicateFilter(evaluator, PredicateFilterType.ANY_MATCH));
-        filters.put("allMatch", new PredicateFilter(evaluator, PredicateFilterType.ALL_MATCH));
-        filters.put("noneMatch", new PredicateFilter(evaluator, PredicateFilterType.NONE_MATCH));
-        filters.put("findFirst", new PredicateFilter(evaluator, PredicateFilterType.FIRST));
+        filters.put("filter", new PredicateFilter(evaluator, PredicateFilterType.FILTER, this));
+        filters.put("anyMatch", new PredicateFilter(evaluator, PredicateFilterType.ANY_MATCH, this));
+        filters.put("allMatch", new PredicateFilter(evaluator, PredicateFilterType.ALL_MATCH, this));
+        filters.put("noneMatch", new PredicateFilter(evaluator, PredicateFilterType.NONE_MATCH, this));
+        filters.put("findFirst", new PredicateFilter(evaluator, PredicateFilterType.FIRST, this));
 
         smartFiltersInitialized = true;
       }
@@ -102,6 +114,25 @@ public class SwarmComposerExtension extends AbstractExtension {
     return Collections.unmodifiableMap(filters);
   }
 
+  /**
+   * @return if predicate filters evaluate predicates in parallel by default
+   */
+  public boolean isParallelPredicates() {
+    return parallelPredicates;
+  }
+
+  /**
+   * Set if predicate filters (like <code>filter</code> or <code>anyMatch</code>) should evaluate predicates in
+   * parallel by default for templates evaluated with this extension instance. This can be overridden per filter with
+   * the <code>parallel</code> argument. The default is determined by the {@link #PARALLEL_PREDICATES_PROPERTY} system
+   * property, which is the way to enable it for all templates and configurations of a build.
+   *
+   * @param parallelPredicates if predicates should be evaluated in parallel
+   */
+  public void setParallelPredicates(boolean parallelPredicates) {
+    this.parallelPredicates = parallelPredicates;
+  }
+
   @Override
   public Map<String, Function> getFunctions() {
     return Collections.unmodifiableMap(functions);
@@ -15,18 +15,15 @@
  */
 package to.wetransform.gradle.swarm.actions.assemble.template;
 
-import java.io.StringWriter;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-import org.yaml.snakeyaml.DumperOptions;
-import org.yaml.snakeyaml.Yaml;
-
 import io.pebbletemplates.pebble.error.PebbleException;
 import io.pebbletemplates.pebble.extension.Filter;
 import io.pebbletemplates.pebble.template.EvaluationContext;
 import io.pebbletemplates.pebble.template.PebbleTemplate;
+import to.wetransform.gradle.swarm.config.ConfigHelper;
 
 /**
  * Filter that produces YAML from input.
@@ -47,13 +44,7 @@ public class YamlFilter implements Filter {
       input = ((ContextWrapper) input).getInternalMap();
     }
 
-    DumperOptions options = new DumperOptions();
-    // options.setExplicitStart(true);
-    options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
-    Yaml yaml = new Yaml(options);
-    StringWriter writer = new StringWriter();
-    yaml.dump(input, writer);
-    return writer.toString();
+    return ConfigHelper.toYaml(input);
   }
 
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config
+
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.gradle.tooling.events.FinishEvent
+import org.gradle.tooling.events.OperationCompletionListener
+
+import to.wetransform.gradle.swarm.actions.assemble.YamlProcessorPipeline
+import to.wetransform.gradle.swarm.crypt.gcm.GcmCryptor
+import to.wetransform.gradle.swarm.config.pebble.AbstractPebbleEvaluator
+
+/**
+ * Build service that scopes the cache of parsed configuration files, the
+ * cached results of YAML post-processors, the Pebble engines used for
+ * configuration evaluation and the keys derived from vault passwords to a
+ * build. The caches are cleared when the build is finished.
+ *
+ * @author Simon Templer
+ */
+abstract class ConfigCacheService implements BuildService<BuildServiceParameters.None>,
+OperationCompletionListener, AutoCloseable {
+
+  private static final Logger log = Logging.getLogger(ConfigCacheService)
+
+  @Override
+  void onFinish(FinishEvent event) {
+    // only registered as listener so the service is closed at the end of the build
+  }
+
+  @Override
+  void close() {
+    ConfigHelper.clearCache()
+    YamlProcessorPipeline.clearCache()
+    GcmCryptor.clearKeys()
+
+    log.info("Configuration expression cache: ${AbstractPebbleEvaluator.expressionCacheStats}")
+    AbstractPebbleEvaluator.clearSharedEngines()
+  }
+}
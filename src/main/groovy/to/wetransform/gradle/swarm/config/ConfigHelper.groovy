@@ -16,13 +16,21 @@
 package to.wetransform.gradle.swarm.config
 
 import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
 
 import org.yaml.snakeyaml.DumperOptions
 import org.yaml.snakeyaml.Yaml
 import org.yaml.snakeyaml.constructor.SafeConstructor
 
 import to.wetransform.gradle.swarm.config.pebble.PebbleCachingEvaluator
+import to.wetransform.gradle.swarm.config.pebble.PebbleGraphEvaluator
+import to.wetransform.gradle.swarm.crypt.SimpleConfigCryptor
+import to.wetransform.gradle.swarm.crypt.alice.AliceCryptor
+import to.wetransform.gradle.swarm.crypt.gcm.GcmCryptor
 import to.wetransform.gradle.swarm.util.Helpers
+import to.wetransform.gradle.swarm.util.YamlStreamWriter
 
 /**
  * Helpers for configurations based on maps and lists.
@@ -31,6 +39,40 @@ import to.wetransform.gradle.swarm.util.Helpers
  */
 class ConfigHelper {
 
+  /**
+   * Parsed configuration file with the hash of the file content it was parsed from.
+   */
+  private static class CachedConfig {
+    final String hash
+    final Map config
+
+    CachedConfig(String hash, Map config) {
+      this.hash = hash
+      this.config = config
+    }
+  }
+
+  /**
+   * System property that, if set to <code>true</code>, enables evaluating configurations
+   * based on a dependency graph determined up front (see {@link PebbleGraphEvaluator}).
+   * Can be set for a Gradle build via <code>systemProp.swarmComposer.graphEvaluation=true</code>
+   * in <code>gradle.properties</code>.
+   */
+  static final String GRAPH_EVALUATION_PROPERTY = 'swarmComposer.graphEvaluation'
+
+  /**
+   * System property that, if set to <code>true</code>, enables evaluating independent
+   * configuration values in parallel. Implies graph based evaluation.
+   */
+  static final String PARALLEL_EVALUATION_PROPERTY = 'swarmComposer.parallelEvaluation'
+
+  /**
+   * Cache of parsed configuration files, mapped by absolute file path (vault
+   * files also by password hash). Entries are validated against a SHA-256 hash
+   * of the file content.
+   */
+  private static final Map<String, CachedConfig> configCache = new ConcurrentHashMap<>()
+
   static Map<String, Object> loadConfig(File rootDir, List configFiles, String stackName = null, String setupName = null,
     Map initialConfig = null, boolean evaluate = true) {
     // config files
@@ -40,16 +82,20 @@ class ConfigHelper {
         // already a loaded configuration
         cfg
       }
+      else if (cfg instanceof VaultFile) {
+        // encrypted configuration file, decrypted in memory
+        loadVault((VaultFile) cfg)
+      }
       else {
         Map<String, Object> result = [:]
         File configFile = Helpers.toFile(cfg)
         if (configFile && configFile.exists()) {
           if (configFile.name.endsWith('.env')) {
             // load environment file
-            result.env = loadEnvironment(configFile)
+            result.env = loadCached(configFile, ConfigHelper.&loadEnvironment)
           }
           else if (configFile.name.endsWith('.yml') || configFile.name.endsWith('.yaml')) {
-            result = loadYaml(configFile)
+            result = loadCached(configFile, ConfigHelper.&loadYaml)
           }
         }
         result
@@ -68,46 +114,165 @@ class ConfigHelper {
     else {
       clist = configs
     }
-    Map<String, Object> context = mergeConfigs(clist)
+    PersistentMap<String, Object> merged = mergeConfigs(clist)
 
     // stack and setup names
     if (stackName) {
-      context.stack = stackName
+      merged = merged.plus('stack', stackName)
     }
     if (setupName) {
-      context.setup = setupName
+      merged = merged.plus('setup', setupName)
     }
 
+    Map<String, Object> context = merged
+
     // evaluate configuration
     if (evaluate) {
-      ConfigEvaluator evaluator = new PebbleCachingEvaluator(rootDir)
+      ConfigEvaluator evaluator = createEvaluator(rootDir)
       context = evaluator.evaluate(context)
     }
 
     context
   }
 
+  /**
+   * Create the evaluator for configurations.
+   *
+   * @param rootDir the root directory for resolving files
+   * @return the configuration evaluator
+   */
+  static ConfigEvaluator createEvaluator(File rootDir) {
+    boolean parallel = Boolean.getBoolean(PARALLEL_EVALUATION_PROPERTY)
+    if (parallel || Boolean.getBoolean(GRAPH_EVALUATION_PROPERTY)) {
+      PebbleGraphEvaluator evaluator = new PebbleGraphEvaluator(rootDir)
+      evaluator.parallel = parallel
+      evaluator
+    }
+    else {
+      new PebbleCachingEvaluator(rootDir)
+    }
+  }
+
+  /**
+   * Load and decrypt an encrypted configuration file. Like other configuration
+   * files, the decrypted configuration is only cached in memory until the end
+   * of the build.
+   *
+   * @param vault the encrypted configuration file and its password
+   * @return the decrypted configuration, it must not be modified
+   */
+  static Map loadVault(VaultFile vault) {
+    File file = vault.file
+    //XXX only YAML supported right now
+    if (!file.exists() || !(file.name.endsWith('.yml') || file.name.endsWith('.yaml'))) {
+      return [:]
+    }
+
+    String password = vault.password
+    if (!password) {
+      throw new IllegalStateException("No password available to decrypt $file")
+    }
+
+    // password is part of the key, so a different password does not use the cached decryption
+    String passwordHash = sha256(password.getBytes(StandardCharsets.UTF_8))
+    loadCached(file, 'vault:' + passwordHash + ':' + file.absolutePath) { File f ->
+      new SimpleConfigCryptor(new GcmCryptor(new AliceCryptor())).decrypt(loadYaml(f) ?: [:], password)
+    }
+  }
+
+  /**
+   * Load a configuration file using the cache of parsed configuration files.
+   * The configuration is parsed again only if the file changed.
+   *
+   * @param file the configuration file
+   * @param loader the closure loading the configuration from the file
+   * @return the loaded configuration, it must not be modified
+   */
+  private static Map loadCached(File file, Closure<Map> loader) {
+    loadCached(file, file.absolutePath, loader)
+  }
+
+  /**
+   * Load a configuration file using the cache of parsed configuration files.
+   * The configuration is parsed again only if the file content changed.
+   * The content is compared by hash, as modification time and size don't
+   * detect all changes (e.g. a same size edit within the timestamp
+   * resolution of the file system).
+   *
+   * @param file the configuration file
+   * @param key the cache key
+   * @param loader the closure loading the configuration from the file
+   * @return the loaded configuration, it must not be modified
+   */
+  private static Map loadCached(File file, String key, Closure<Map> loader) {
+    String hash = sha256(file.bytes)
+
+    CachedConfig cached = configCache.get(key)
+    if (cached == null || cached.hash != hash) {
+      cached = new CachedConfig(hash, (Map) toImmutable(loader.call(file)))
+      configCache.put(key, cached)
+    }
+    cached.config
+  }
+
+  private static String sha256(byte[] bytes) {
+    MessageDigest.getInstance('SHA-256').digest(bytes).encodeHex().toString()
+  }
+
+  /**
+   * Clear the cache of parsed configuration files.
+   */
+  static void clearCache() {
+    configCache.clear()
+  }
+
+  /**
+   * Create an immutable copy of a configuration structure.
+   * Maps are converted to persistent maps to allow sharing them when merging configurations.
+   *
+   * @param value the configuration value
+   * @return the immutable value
+   */
+  static Object toImmutable(Object value) {
+    if (value instanceof Map) {
+      PersistentMap result = PersistentMap.empty()
+      value.each { key, child ->
+        result = result.plus(key, toImmutable(child))
+      }
+      result
+    }
+    else if (value instanceof List) {
+      Collections.unmodifiableList(value.collect { toImmutable(it) })
+    }
+    else {
+      value
+    }
+  }
+
   /**
    * Merge configuration maps together.
    * Configurations in subsequent maps may override configuration from the previous maps.
    *
+   * The result is an immutable map that shares structure with the merged maps,
+   * so merging a small configuration into a large one is cheap.
+   *
    * @param configs the configurations
    * @return the merged configuration
    */
-  static Map mergeConfigs(Iterable<Map> configs) {
-    configs.asCollection().inject([:], ConfigHelper.&combineMap)
+  static PersistentMap mergeConfigs(Iterable<Map> configs) {
+    configs.asCollection().inject(PersistentMap.empty(), ConfigHelper.&combineMap)
   }
 
-  private static Map combineMap(Map a, Map b) {
+  private static PersistentMap combineMap(Map a, Map b) {
+    PersistentMap result = PersistentMap.from(a)
     if (a.is(b)) {
-      return a
+      return result
     }
 
-    Map result = [:]
-    result.putAll(a)
     b.each { key, value ->
       if (value != null) {
-        result.merge(key, value, ConfigHelper.&combineValue)
+        def existing = result.get(key)
+        result = result.plus(key, existing == null ? value : combineValue(existing, value))
       }
     }
     result
@@ -174,6 +339,77 @@ class ConfigHelper {
     pairs.collectEntries()
   }
 
+  /**
+   * Idle Yaml instances for loading YAML. Yaml instances are not thread safe but expensive to
+   * create, so they are reused. The number of instances is limited by the number of threads
+   * using them concurrently.
+   */
+  private static final Queue<Yaml> yamlLoaders = new ConcurrentLinkedQueue<>()
+
+  /**
+   * Idle writers for writing YAML, reused the same way.
+   */
+  private static final Queue<YamlStreamWriter> yamlWriters = new ConcurrentLinkedQueue<>()
+
+  /**
+   * Run an action with an instance from a pool that is exclusively used by the action.
+   *
+   * @param pool the pool of idle instances
+   * @param create creates a new instance if none is available
+   * @param action the action to run
+   * @return the result of the action
+   */
+  private static <T, R> R withPooled(Queue<T> pool, Closure<T> create, Closure<R> action) {
+    T instance = pool.poll()
+    if (instance == null) {
+      instance = create()
+    }
+    try {
+      action(instance)
+    } finally {
+      pool.offer(instance)
+    }
+  }
+
+  private static <R> R withYamlLoader(Closure<R> action) {
+    withPooled(yamlLoaders, { new Yaml() }, action)
+  }
+
+  private static void withYamlWriter(Closure action) {
+    withPooled(yamlWriters, {
+      DumperOptions options = new DumperOptions()
+      //    options.explicitStart = true
+      options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK)
+      new YamlStreamWriter(options)
+    }, action)
+  }
+
+  /**
+   * Parse YAML from a string.
+   *
+   * @param text the YAML string
+   * @return the parsed object
+   */
+  static Object parseYaml(String text) {
+    withYamlLoader { Yaml yaml ->
+      yaml.load(text)
+    }
+  }
+
+  /**
+   * Write an object as YAML to a string.
+   *
+   * @param object the object to write
+   * @return the YAML string
+   */
+  static String toYaml(Object object) {
+    StringWriter writer = new StringWriter()
+    withYamlWriter { YamlStreamWriter yaml ->
+      yaml.write(object, writer)
+    }
+    writer.toString()
+  }
+
   /**
    * Load a configuration from a YAML file.
    *
@@ -181,28 +417,27 @@ class ConfigHelper {
    * @return the loaded configuration map
    */
   static Map loadYaml(File yamlFile) {
-    Yaml yaml = new Yaml()
     Map result
-    yamlFile.withInputStream {
-      result = yaml.load(it)
+    yamlFile.withInputStream { InputStream input ->
+      result = withYamlLoader { Yaml yaml ->
+        yaml.load(input)
+      }
     }
     result ?: [:]
   }
 
   /**
-   * Load a configuration from a YAML file.
+   * Save a configuration to a YAML file. The YAML is written while traversing
+   * the configuration, without creating an intermediate representation.
    *
+   * @param config the configuration map
    * @param yamlFile the YAML file
-   * @return the loaded configuration map
    */
   static void saveYaml(Map config, File yamlFile) {
-    DumperOptions options = new DumperOptions()
-    //    options.explicitStart = true
-    options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK)
-    Yaml yaml = new Yaml(options)
-    Map result
-    yamlFile.withWriter(StandardCharsets.UTF_8.name()) {
-      result = yaml.dump(config, it)
+    yamlFile.withWriter(StandardCharsets.UTF_8.name()) { Writer writer ->
+      withYamlWriter { YamlStreamWriter yaml ->
+        yaml.write(config, writer)
+      }
     }
   }
 }
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable map based on a hash array mapped trie. Adding an entry creates a
+ * new map that shares most of its structure with the original map, so adding a
+ * few entries to a large map is cheap.
+ *
+ * Iteration order is the order in which keys were first added, like for a
+ * {@link java.util.LinkedHashMap}. Replacing the value of a key does not change
+ * the order. Removing entries is not supported.
+ *
+ * When serialized, the map is replaced by a {@link LinkedHashMap}.
+ *
+ * @author Simon Templer
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(BitmapNode.EMPTY, null, 0);
+
+  private static final Object NOT_FOUND = new Object();
+
+  private static final int BITS = 5;
+
+  private static final int MASK = (1 << BITS) - 1;
+
+  /**
+   * Key/value pair stored in the trie.
+   */
+  private static final class Leaf {
+
+    final int hash;
+    final Object key;
+    final Object value;
+
+    Leaf(int hash, Object key, Object value) {
+      this.hash = hash;
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Node of the trie.
+   */
+  private interface Node {
+
+    Object find(int shift, int hash, Object key);
+
+    /**
+     * Create a node with the given entry added or replaced.
+     *
+     * @param added set to <code>true</code> if a new key was added
+     * @return the new node or this node if nothing changed
+     */
+    Node assoc(int shift, int hash, Object key, Object value, boolean[] added);
+  }
+
+  /**
+   * Node with up to 32 children, which are either leafs or nodes.
+   */
+  private static final class BitmapNode implements Node {
+
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    final int bitmap;
+    final Object[] children;
+
+    BitmapNode(int bitmap, Object[] children) {
+      this.bitmap = bitmap;
+      this.children = children;
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    public Object find(int shift, int hash, Object key) {
+      int bit = bitpos(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return NOT_FOUND;
+      }
+      Object child = children[index(bit)];
+      if (child instanceof Node) {
+        return ((Node) child).find(shift + BITS, hash, key);
+      }
+      Leaf leaf = (Leaf) child;
+      if (leaf.hash == hash && Objects.equals(leaf.key, key)) {
+        return leaf.value;
+      }
+      return NOT_FOUND;
+    }
+
+    @Override
+    public Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+      int bit = bitpos(hash, shift);
+      int idx = index(bit);
+
+      if ((bitmap & bit) == 0) {
+        // new child
+        Object[] newChildren = new Object[children.length + 1];
+        System.arraycopy(children, 0, newChildren, 0, idx);
+        newChildren[idx] = new Leaf(hash, key, value);
+        System.arraycopy(children, idx, newChildren, idx + 1, children.length - idx);
+        added[0] = true;
+        return new BitmapNode(bitmap | bit, newChildren);
+      }
+
+      Object child = children[idx];
+      Object newChild;
+      if (child instanceof Node) {
+        Node node = ((Node) child).assoc(shift + BITS, hash, key, value, added);
+        if (node == child) {
+          return this;
+        }
+        newChild = node;
+      }
+      else {
+        Leaf leaf = (Leaf) child;
+        if (leaf.hash == hash && Objects.equals(leaf.key, key)) {
+          if (leaf.value == value) {
+            return this;
+          }
+          newChild = new Leaf(hash, key, value);
+        }
+        else {
+          newChild = createNode(shift + BITS, leaf, new Leaf(hash, key, value));
+          added[0] = true;
+        }
+      }
+
+      Object[] newChildren = children.clone();
+      newChildren[idx] = newChild;
+      return new BitmapNode(bitmap, newChildren);
+    }
+
+    private static Node createNode(int shift, Leaf leaf1, Leaf leaf2) {
+      if (leaf1.hash == leaf2.hash) {
+        return new CollisionNode(leaf1.hash, new Leaf[] { leaf1, leaf2 });
+      }
+      boolean[] added = new boolean[1];
+      return EMPTY.assoc(shift, leaf1.hash, leaf1.key, leaf1.value, added)
+        .assoc(shift, leaf2.hash, leaf2.key, leaf2.value, added);
+    }
+  }
+
+  /**
+   * Node holding leafs with the same hash.
+   */
+  private static final class CollisionNode implements Node {
+
+    final int hash;
+    final Leaf[] leafs;
+
+    CollisionNode(int hash, Leaf[] leafs) {
+      this.hash = hash;
+      this.leafs = leafs;
+    }
+
+    @Override
+    public Object find(int shift, int hash, Object key) {
+      if (hash == this.hash) {
+        for (Leaf leaf : leafs) {
+          if (Objects.equals(leaf.key, key)) {
+            return leaf.value;
+          }
+        }
+      }
+      return NOT_FOUND;
+    }
+
+    @Override
+    public Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+      if (hash != this.hash) {
+        // nest in a bitmap node
+        return new BitmapNode(bitpos(this.hash, shift), new Object[] { this })
+          .assoc(shift, hash, key, value, added);
+      }
+
+      for (int i = 0; i < leafs.length; i++) {
+        if (Objects.equals(leafs[i].key, key)) {
+          if (leafs[i].value == value) {
+            return this;
+          }
+          Leaf[] newLeafs = leafs.clone();
+          newLeafs[i] = new Leaf(hash, key, value);
+          return new CollisionNode(hash, newLeafs);
+        }
+      }
+
+      Leaf[] newLeafs = new Leaf[leafs.length + 1];
+      System.arraycopy(leafs, 0, newLeafs, 0, leafs.length);
+      newLeafs[leafs.length] = new Leaf(hash, key, value);
+      added[0] = true;
+      return new CollisionNode(hash, newLeafs);
+    }
+  }
+
+  /**
+   * Persistent list of keys, in reverse order of addition.
+   */
+  private static final class KeyList {
+
+    final Object key;
+    final KeyList next;
+
+    KeyList(Object key, KeyList next) {
+      this.key = key;
+      this.next = next;
+    }
+  }
+
+  private final Node root;
+
+  private final KeyList keys;
+
+  private final int size;
+
+  /**
+   * Keys in order of addition, created on demand.
+   */
+  private volatile Object[] orderedKeys;
+
+  private PersistentMap(Node root, KeyList keys, int size) {
+    this.root = root;
+    this.keys = keys;
+    this.size = size;
+  }
+
+  /**
+   * @return an empty map
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentMap<K, V> empty() {
+    return (PersistentMap<K, V>) EMPTY;
+  }
+
+  /**
+   * Create a persistent map from the given map. If it already is a persistent
+   * map, it is returned as is.
+   *
+   * @param map the map to copy
+   * @return the persistent map
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentMap<K, V> from(Map<? extends K, ? extends V> map) {
+    if (map instanceof PersistentMap) {
+      return (PersistentMap<K, V>) map;
+    }
+    PersistentMap<K, V> result = empty();
+    for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+      result = result.plus(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * Create a map with the given entry added. If the key is already present,
+   * its value is replaced.
+   *
+   * @param key the key
+   * @param value the value
+   * @return the new map, or this map if nothing changed
+   */
+  public PersistentMap<K, V> plus(K key, V value) {
+    boolean[] added = new boolean[1];
+    Node newRoot = root.assoc(0, hash(key), key, value, added);
+    if (newRoot == root) {
+      return this;
+    }
+    if (added[0]) {
+      return new PersistentMap<>(newRoot, new KeyList(key, keys), size + 1);
+    }
+    return new PersistentMap<>(newRoot, keys, size);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V get(Object key) {
+    Object value = root.find(0, hash(key), key);
+    return value == NOT_FOUND ? null : (V) value;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return root.find(0, hash(key), key) != NOT_FOUND;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public Set<Map.Entry<K, V>> entrySet() {
+    return new AbstractSet<Map.Entry<K, V>>() {
+
+      @Override
+      public Iterator<Map.Entry<K, V>> iterator() {
+        final Object[] ordered = getOrderedKeys();
+        return new Iterator<Map.Entry<K, V>>() {
+
+          private int index = 0;
+
+          @Override
+          public boolean hasNext() {
+            return index < ordered.length;
+          }
+
+          @SuppressWarnings("unchecked")
+          @Override
+          public Map.Entry<K, V> next() {
+            if (index >= ordered.length) {
+              throw new NoSuchElementException();
+            }
+            K key = (K) ordered[index++];
+            return new AbstractMap.SimpleImmutableEntry<>(key, get(key));
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private Object[] getOrderedKeys() {
+    Object[] result = orderedKeys;
+    if (result == null) {
+      result = new Object[size];
+      int index = size;
+      for (KeyList list = keys; list != null; list = list.next) {
+        result[--index] = list.key;
+      }
+      orderedKeys = result;
+    }
+    return result;
+  }
+
+  private Object writeReplace() {
+    return new LinkedHashMap<>(this);
+  }
+
+  private static int hash(Object key) {
+    int h = Objects.hashCode(key);
+    return h ^ (h >>> 16);
+  }
+
+  private static int bitpos(int hash, int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Index of swarm-composer settings (<code>swarm-composer.yml</code> files)
+ * of stacks, setups and builds. Each settings file is only loaded once, and
+ * the hierarchy of stacks or setups extending each other is only resolved once.
+ *
+ * @author Simon Templer
+ */
+class SettingsIndex {
+
+  /**
+   * Name of the settings file.
+   */
+  static final String SETTINGS_FILE = 'swarm-composer.yml'
+
+  /**
+   * Extends relations between the stacks or setups in a directory.
+   */
+  private static class ExtendsGraph {
+
+    /**
+     * Names of stacks or setups mapped to the names they directly extend.
+     */
+    final Map<String, List<String>> edges
+
+    /**
+     * Resolved extended stacks or setups, in the order they should be applied.
+     */
+    final Map<String, List<String>> resolved = new ConcurrentHashMap<>()
+
+    ExtendsGraph(Map<String, List<String>> edges) {
+      this.edges = edges
+    }
+
+    List<String> getExtended(String name) {
+      resolved.computeIfAbsent(name) { String n ->
+        checkCycles(n)
+        resolve(n).asImmutable()
+      }
+    }
+
+    private List<String> directExtends(String name) {
+      edges[name] ?: []
+    }
+
+    /**
+     * Check if there is a cycle in the extends relations that can be reached
+     * from the given stack or setup.
+     */
+    private void checkCycles(String name) {
+      Set<String> done = new HashSet<>()
+      Deque<String> path = new ArrayDeque<>()
+
+      Closure visit
+      visit = { String node ->
+        if (path.contains(node)) {
+          List<String> cycle = path.toList().reverse()
+          cycle = new ArrayList<>(cycle.subList(cycle.indexOf(node), cycle.size()))
+          cycle << node
+          throw new IllegalStateException("Cycle detected in extended configurations of $name: ${cycle.join(' -> ')}")
+        }
+        if (done.add(node)) {
+          path.push(node)
+          directExtends(node).each { visit(it) }
+          path.pop()
+        }
+      }
+
+      visit(name)
+    }
+
+    /**
+     * Determine the extended stacks or setups. The order is the reverse of a
+     * traversal processing the directly extended configurations last to first,
+     * with indirectly extended configurations being processed after the
+     * direct ones.
+     */
+    private List<String> resolve(String name) {
+      Deque<String> toProcess = new LinkedList<>()
+      toProcess.addAll(directExtends(name))
+      Set<String> handled = new HashSet<>()
+      def result = []
+
+      while (!toProcess.empty) {
+        String candidate = toProcess.pollLast()
+
+        if (handled.add(candidate)) {
+          // add to result
+          result << candidate
+
+          // check candidate for direct dependencies
+          directExtends(candidate).reverse().each {
+            toProcess.addFirst(it)
+          }
+        }
+      }
+
+      result.reverse() // reverse to have correct extension order
+    }
+  }
+
+  private final Map<File, Map> settings = new ConcurrentHashMap<>()
+
+  private final Map<File, ExtendsGraph> graphs = new ConcurrentHashMap<>()
+
+  /**
+   * Get the settings for a stack, setup or build directory.
+   *
+   * @param dir the directory
+   * @return the settings, an empty map if there are no settings
+   */
+  Map getSettings(File dir) {
+    settings.computeIfAbsent(dir.absoluteFile) { File d ->
+      def file = new File(d, SETTINGS_FILE)
+      file.exists() ? (ConfigHelper.toImmutable(ConfigHelper.loadYaml(file)) as Map) : [:].asImmutable()
+    }
+  }
+
+  /**
+   * Get the names of stacks or setups a stack or setup extends, including
+   * indirectly extended ones.
+   *
+   * @param baseDir the directory containing the stacks or setups
+   * @param name the name of the stack or setup
+   * @return the names of the extended stacks or setups, in the order they
+   *   should be applied
+   * @throws IllegalStateException if the extends relations contain a cycle
+   */
+  List<String> getExtended(File baseDir, String name) {
+    graphs.computeIfAbsent(baseDir.absoluteFile) { File d ->
+      Map<String, List<String>> edges = [:]
+      d.eachDir { File dir ->
+        edges[dir.name] = extendsList(getSettings(dir))
+      }
+      new ExtendsGraph(edges)
+    }.getExtended(name)
+  }
+
+  private static List<String> extendsList(Map settings) {
+    def extend = settings['extends']
+    if (!extend) {
+      []
+    }
+    else if (extend instanceof Collection) {
+      extend.collect { it as String }
+    }
+    else {
+      [extend as String]
+    }
+  }
+}
@@ -34,12 +34,37 @@ class SetupConfiguration {
 
   String setupName
 
-  List configFiles
+  private List configFiles
+
+  /**
+   * Closure that provides the list of configuration files, for the case
+   * that the configuration files should only be determined when needed.
+   */
+  Closure<List> configFilesResolver
 
   private Map config
 
   private Map unevaluated
 
+  private Map additionalConfig = [:]
+
+  /**
+   * Get the list of configuration files. If not set explicitly, the files are
+   * determined via the configuration files resolver on first access.
+   *
+   * @return the list of configuration files or configuration maps
+   */
+  List getConfigFiles() {
+    if (configFiles == null && configFilesResolver != null) {
+      configFiles = configFilesResolver.call()
+    }
+    configFiles
+  }
+
+  void setConfigFiles(List configFiles) {
+    this.configFiles = configFiles
+  }
+
   /**
    * Get the setup configuration. This configuration only should be retrieved by the internal API,
    * and there only from running tasks, as other (user-defined) tasks that run before may add
@@ -51,7 +76,7 @@ class SetupConfiguration {
     if (!configInitialized) {
       assert stackName
       assert setupName
-      config = ConfigHelper.loadConfig(setupDir?.parentFile?.parentFile, configFiles, stackName, setupName, config)
+      config = ConfigHelper.loadConfig(setupDir?.parentFile?.parentFile, getConfigFiles(), stackName, setupName, config)
       configInitialized = true
     }
     config.asImmutable()
@@ -60,11 +85,27 @@ class SetupConfiguration {
   /**
    * Add configuration for the setup.
    *
+   * Configuration should be added while the build is configured. With the
+   * configuration cache enabled, configuration added during task execution is
+   * not seen by the task assembling the setup.
+   *
    * @param conf the configuration to add
    */
   void addConfig(Map conf) {
     config = ConfigHelper.mergeConfigs([config ?: [:], conf])
     unevaluated = ConfigHelper.mergeConfigs([unevaluated ?: [:], conf])
+    additionalConfig = ConfigHelper.mergeConfigs([additionalConfig, conf])
+  }
+
+  /**
+   * Get the configuration that was added via {@link #addConfig(Map)}.
+   * Together with the configuration files it allows to load the setup
+   * configuration independently of this object.
+   *
+   * @return the added configuration
+   */
+  Map getAdditionalConfig() {
+    additionalConfig.asImmutable()
   }
 
   /**
@@ -78,7 +119,7 @@ class SetupConfiguration {
     if (!unevaluatedInitialized) {
       assert stackName
       assert setupName
-      unevaluated = ConfigHelper.loadConfig(setupDir?.parentFile?.parentFile, configFiles, stackName, setupName, unevaluated, false)
+      unevaluated = ConfigHelper.loadConfig(setupDir?.parentFile?.parentFile, getConfigFiles(), stackName, setupName, unevaluated, false)
       unevaluatedInitialized = true
     }
     unevaluated.asImmutable()
@@ -96,8 +137,30 @@ class SetupConfiguration {
    *   if any changes were made
    */
   def processYaml(Closure processor) {
+    processYaml([:], processor)
+  }
+
+  /**
+   * Add a post-processor that can modify the YAML structure.
+   *
+   * @param options options for the post-processor, with <code>pure</code>
+   *   stating if the result of the post-processor only depends on its
+   *   arguments and <code>id</code> identifying the post-processor including
+   *   any values it captures (results are only cached if both are given)
+   * @param processor the post-processor, a closure that takes the YAML
+   *   map/list structure as argument and returns a boolean the states
+   *   if any changes were made
+   */
+  def processYaml(Map options, Closure processor) {
     yamlPostProcessors << processor
+    yamlPostProcessorCacheIds << ((options?.pure && options?.id) ? options.id.toString() : null)
   }
 
   final List yamlPostProcessors = []
+
+  /**
+   * For each YAML post-processor, the identifier to cache its results with,
+   * or <code>null</code>.
+   */
+  final List<String> yamlPostProcessorCacheIds = []
 }
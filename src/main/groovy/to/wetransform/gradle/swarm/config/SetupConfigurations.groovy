@@ -131,4 +131,19 @@ class SetupConfigurations implements Iterable<SetupConfiguration> {
   void processYaml(Closure processor) {
     this.toList()*.processYaml(processor)
   }
+
+  /**
+   * Add a post-processor that can modify the YAML structure.
+   *
+   * @param options options for the post-processor, with <code>pure</code>
+   *   stating if the result of the post-processor only depends on its
+   *   arguments and <code>id</code> identifying the post-processor including
+   *   any values it captures (results are only cached if both are given)
+   * @param processor the post-processor, a closure that takes the YAML
+   *   map/list structure as argument and returns a boolean the states
+   *   if any changes were made
+   */
+  void processYaml(Map options, Closure processor) {
+    this.toList().each { it.processYaml(options, processor) }
+  }
 }
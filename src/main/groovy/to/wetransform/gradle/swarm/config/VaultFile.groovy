@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config
+
+import groovy.transform.EqualsAndHashCode
+
+import org.gradle.api.provider.Provider
+
+/**
+ * Encrypted configuration file together with the password to decrypt it.
+ * Used in place of a configuration file to decrypt it in memory when the
+ * configuration is loaded.
+ *
+ * When used as part of task state, the password should be provided as
+ * {@link Provider} (e.g. of a Gradle property), so it is resolved when the
+ * task is executed and not stored with the configuration cache.
+ *
+ * @author Simon Templer
+ */
+@EqualsAndHashCode(includes = ['file'])
+class VaultFile {
+
+  /**
+   * The encrypted configuration file.
+   */
+  final File file
+
+  private final Provider<String> passwordProvider
+
+  private final String password
+
+  /**
+   * Create a vault file with a password that is resolved when needed.
+   *
+   * @param file the encrypted configuration file
+   * @param password the provider of the password to decrypt the file with
+   */
+  VaultFile(File file, Provider<String> password) {
+    this.file = file
+    this.passwordProvider = password
+    this.password = null
+  }
+
+  /**
+   * Create a vault file with a given password.
+   *
+   * @param file the encrypted configuration file
+   * @param password the password to decrypt the file with
+   */
+  VaultFile(File file, String password) {
+    this.file = file
+    this.passwordProvider = null
+    this.password = password
+  }
+
+  /**
+   * @return the password to decrypt the file with
+   */
+  String getPassword() {
+    passwordProvider != null ? passwordProvider.getOrNull() : password
+  }
+
+  @Override
+  String toString() {
+    // don't include the password
+    "$file (encrypted)"
+  }
+}
@@ -21,6 +21,7 @@ import java.io.Reader
 import java.io.Writer
 import java.nio.charset.StandardCharsets
 import java.util.Map
+import java.util.concurrent.ConcurrentHashMap
 
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -37,6 +38,7 @@ import to.wetransform.gradle.swarm.actions.assemble.template.ContextWrapper
 import to.wetransform.gradle.swarm.actions.assemble.template.SwarmComposerExtension
 import to.wetransform.gradle.swarm.config.ConfigEvaluator
 import to.wetransform.gradle.swarm.config.ConfigHelper
+import to.wetransform.gradle.swarm.util.LruCache
 
 /**
  * Evaluates config based on Pebble templates.
@@ -45,8 +47,32 @@ import to.wetransform.gradle.swarm.config.ConfigHelper
  */
 abstract class AbstractPebbleEvaluator implements ConfigEvaluator {
 
+  /**
+   * Maximum number of compiled expressions cached per Pebble engine.
+   */
+  static final int EXPRESSION_CACHE_SIZE = Integer.getInteger('swarmComposer.expressionCacheSize', 10000)
+
+  /**
+   * Pebble engine shared between evaluators with the same settings.
+   */
+  private static class SharedEngine {
+    final PebbleEngine engine
+    final ExpressionCache cache
+
+    SharedEngine(PebbleEngine engine, ExpressionCache cache) {
+      this.engine = engine
+      this.cache = cache
+    }
+  }
+
+  /**
+   * Shared engines mapped by lenient setting and root directory.
+   */
+  private static final Map<String, SharedEngine> sharedEngines = new ConcurrentHashMap<>()
+
   protected PebbleEngine engine
   private final SwarmComposerExtension extension
+  private final File rootDir
 
   private static final Logger log = LoggerFactory.getLogger(AbstractPebbleEvaluator)
 
@@ -56,29 +82,116 @@ abstract class AbstractPebbleEvaluator implements ConfigEvaluator {
     this(false, rootDir)
   }
 
+  /**
+   * Create an evaluator that uses a Pebble engine shared with other evaluators
+   * with the same settings, including the cache of compiled expressions.
+   */
   AbstractPebbleEvaluator(boolean lenient, File rootDir) {
-    this(lenient, new SwarmComposerExtension(lenient, rootDir))
+    super()
+    this.lenient = lenient
+    this.extension = null
+    this.rootDir = rootDir
   }
 
   AbstractPebbleEvaluator(boolean lenient, SwarmComposerExtension extension) {
     super()
     this.lenient = lenient
     this.extension = extension
+    this.rootDir = null
   }
 
   protected void init() {
     if (engine == null) {
-      engine = new PebbleEngine.Builder()
-        .newLineTrimming(false)
-        .strictVariables(!lenient)
-        .autoEscaping(false)
-        .extension(this.extension)
-        .loader(new StringLoader())
-        .build()
+      if (extension == null) {
+        // use local variables in closure, as private fields are not accessible from subclasses
+        boolean lenient = this.lenient
+        File rootDir = this.rootDir
+        String key = "$lenient:${rootDir?.absolutePath}"
+        engine = sharedEngines.computeIfAbsent(key) {
+          ExpressionCache cache = new ExpressionCache(EXPRESSION_CACHE_SIZE)
+          new SharedEngine(createEngine(lenient, new SwarmComposerExtension(lenient, rootDir), cache), cache)
+        }.engine
+      }
+      else {
+        engine = createEngine(lenient, extension, new ExpressionCache(EXPRESSION_CACHE_SIZE))
+      }
     }
   }
 
+  /**
+   * Get the compiled template for a template string. Compiled templates are
+   * cached by the engine.
+   *
+   * @param template the template string
+   * @return the compiled template
+   */
+  PebbleTemplate getTemplate(String template) {
+    init()
+    engine.getTemplate(template)
+  }
+
+  /**
+   * @return if missing variables are ignored during evaluation
+   */
+  boolean isLenient() {
+    lenient
+  }
+
+  protected static PebbleEngine createEngine(boolean lenient, SwarmComposerExtension extension, ExpressionCache cache) {
+    new PebbleEngine.Builder()
+      .newLineTrimming(false)
+      .strictVariables(!lenient)
+      .autoEscaping(false)
+      .extension(extension)
+      .loader(new StringLoader())
+      .templateCache(cache)
+      .build()
+  }
+
+  /**
+   * Get the statistics of the compiled expression caches of all shared engines.
+   *
+   * @return the combined cache statistics
+   */
+  static LruCache.Stats getExpressionCacheStats() {
+    LruCache.Stats result = new LruCache.Stats(0, 0, 0, 0)
+    for (SharedEngine shared : sharedEngines.values()) {
+      result = result.plus(shared.cache.stats)
+    }
+    result
+  }
+
+  /**
+   * Discard the shared engines and their caches.
+   */
+  static void clearSharedEngines() {
+    sharedEngines.clear()
+  }
+
+  /**
+   * Check if a value is a literal, i.e. it does not contain any Pebble tags.
+   * Evaluating a literal as template would just yield the value itself.
+   *
+   * @param value the value to check
+   * @return <code>true</code> if the value is a literal
+   */
+  static boolean isLiteral(String value) {
+    int index = value.indexOf('{')
+    while (index >= 0 && index < value.length() - 1) {
+      char next = value.charAt(index + 1)
+      if (next == ('{' as char) || next == ('%' as char) || next == ('#' as char)) {
+        return false
+      }
+      index = value.indexOf('{', index + 1)
+    }
+    true
+  }
+
   boolean isDynamicValue(String value) {
+    if (isLiteral(value)) {
+      return false
+    }
+
     init()
     //XXX this function uses Pebble internal API
 
@@ -101,6 +214,21 @@ abstract class AbstractPebbleEvaluator implements ConfigEvaluator {
   }
 
   Collection<List<String>> getDependencies(String value) {
+    collectDependencies(value)?.dependencies ?: []
+  }
+
+  /**
+   * Collect the references of a template.
+   *
+   * @param value the template
+   * @return the visitor that collected the references, <code>null</code> if the
+   *   value is a literal or the references could not be determined
+   */
+  protected DependencyCollectorVisitor collectDependencies(String value) {
+    if (isLiteral(value)) {
+      return null
+    }
+
     init()
     //XXX this function uses Pebble internal API
 
@@ -115,10 +243,10 @@ abstract class AbstractPebbleEvaluator implements ConfigEvaluator {
       RootNode root = parser.parse(tokenStream)
       def visitor = new DependencyCollectorVisitor()
       root.accept(visitor)
-      visitor.dependencies
+      visitor
     } catch (e) {
-      log.warn("Could not determine if expression is dynamic: $value", e)
-      false
+      log.warn("Could not determine dependencies of expression: $value", e)
+      null
     }
   }
 }
@@ -44,13 +44,20 @@ import io.pebbletemplates.pebble.node.TextNode;
 import io.pebbletemplates.pebble.node.expression.BinaryExpression;
 import io.pebbletemplates.pebble.node.expression.ContextVariableExpression;
 import io.pebbletemplates.pebble.node.expression.Expression;
+import io.pebbletemplates.pebble.node.expression.FilterInvocationExpression;
 import io.pebbletemplates.pebble.node.expression.FunctionOrMacroInvocationExpression;
 import io.pebbletemplates.pebble.node.expression.GetAttributeExpression;
 import io.pebbletemplates.pebble.node.expression.LiteralStringExpression;
+import io.pebbletemplates.pebble.node.expression.TernaryExpression;
+import io.pebbletemplates.pebble.node.expression.TestInvocationExpression;
 import io.pebbletemplates.pebble.node.expression.UnaryExpression;
+import io.pebbletemplates.pebble.utils.Pair;
 
 /**
- * Visitor that checks if there is any dynamic content in the visited nodes.
+ * Visitor that collects the paths of variables referenced in the visited nodes.
+ *
+ * References that are only evaluated depending on a condition (in the branches of a ternary expression or an
+ * <code>if</code> tag) are also available separately via {@link #getConditionalDependencies()}.
  *
  * @author Simon Templer
  */
@@ -58,14 +65,63 @@ public class DependencyCollectorVisitor implements NodeVisitor {
 
   private Set<List<String>> dependencies = new HashSet<>();
 
+  private Set<List<String>> conditionalDependencies = new HashSet<>();
+
+  /**
+   * Number of conditional branches the currently visited node is contained in.
+   */
+  private int conditional = 0;
+
+  /**
+   * @return all referenced paths
+   */
   public Set<List<String>> getDependencies() {
-    return Collections.unmodifiableSet(dependencies);
+    Set<List<String>> result = new HashSet<>(dependencies);
+    result.addAll(conditionalDependencies);
+    return Collections.unmodifiableSet(result);
+  }
+
+  /**
+   * @return the referenced paths that are only evaluated depending on a condition
+   */
+  public Set<List<String>> getConditionalDependencies() {
+    Set<List<String>> result = new HashSet<>(conditionalDependencies);
+    result.removeAll(dependencies);
+    return Collections.unmodifiableSet(result);
   }
 
   protected void analyzeExpression(Expression<?> expression) {
     List<String> dep = doAnalyzeExpression(expression, true);
     if (dep != null) {
-      dependencies.add(Collections.unmodifiableList(dep));
+      if (conditional > 0) {
+        conditionalDependencies.add(Collections.unmodifiableList(dep));
+      } else {
+        dependencies.add(Collections.unmodifiableList(dep));
+      }
+    }
+  }
+
+  /**
+   * Analyze an expression that is only evaluated depending on a condition.
+   */
+  protected void analyzeConditional(Expression<?> expression) {
+    conditional++;
+    try {
+      analyzeExpression(expression);
+    } finally {
+      conditional--;
+    }
+  }
+
+  /**
+   * Visit a node that is only evaluated depending on a condition.
+   */
+  protected void visitConditional(Node node) {
+    conditional++;
+    try {
+      node.accept(this);
+    } finally {
+      conditional--;
     }
   }
 
@@ -76,6 +132,27 @@ public class DependencyCollectorVisitor implements NodeVisitor {
 
     if (expression instanceof FunctionOrMacroInvocationExpression) {
       visit(((FunctionOrMacroInvocationExpression) expression).getArguments());
+      return null;
+    } else if (expression instanceof FilterInvocationExpression) {
+      // filter arguments, the filter input is the left side of the filter expression
+      ArgumentsNode args = ((FilterInvocationExpression) expression).getArgs();
+      if (args != null) {
+        visit(args);
+      }
+      return null;
+    } else if (expression instanceof TestInvocationExpression) {
+      ArgumentsNode args = ((TestInvocationExpression) expression).getArgs();
+      if (args != null) {
+        visit(args);
+      }
+      return null;
+    } else if (expression instanceof TernaryExpression) {
+      TernaryExpression expr = (TernaryExpression) expression;
+
+      analyzeExpression(expr.getExpression1());
+      analyzeConditional(expr.getExpression2());
+      analyzeConditional(expr.getExpression3());
+
       return null;
     } else if (expression instanceof BinaryExpression<?>) {
       BinaryExpression<?> expr = (BinaryExpression<?>) expression;
@@ -179,16 +256,21 @@ public class DependencyCollectorVisitor implements NodeVisitor {
 
   @Override
   public void visit(IfNode node) {
-    node.getConditionsWithBodies().forEach((pair) -> {
-      Expression<?> condition = pair.getLeft();
-      analyzeExpression(condition);
-      BodyNode then = pair.getRight();
-      then.accept(this);
-    });
+    boolean first = true;
+    for (Pair<Expression<?>, BodyNode> pair : node.getConditionsWithBodies()) {
+      // only the first condition is always evaluated
+      if (first) {
+        analyzeExpression(pair.getLeft());
+        first = false;
+      } else {
+        analyzeConditional(pair.getLeft());
+      }
+      visitConditional(pair.getRight());
+    }
 
     BodyNode elseBody = node.getElseBody();
     if (elseBody != null) {
-      elseBody.accept(this);
+      visitConditional(elseBody);
     }
   }
 
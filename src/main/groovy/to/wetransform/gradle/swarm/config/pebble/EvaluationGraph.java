@@ -0,0 +1,327 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config.pebble;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Dependency graph of values to evaluate. Dependencies are either strict, in
+ * which case a cycle means that the values cannot be evaluated, or weak, in
+ * which case they are only used to determine the evaluation order.
+ *
+ * All algorithms are iterative, so deep dependency chains are supported.
+ *
+ * @author Simon Templer
+ * @param <T> the node type
+ */
+public class EvaluationGraph<T> {
+
+  private final List<T> nodes = new ArrayList<>();
+
+  private int[][] strict = new int[16][];
+
+  private int[][] weak = new int[16][];
+
+  private int[] strictCount = new int[16];
+
+  private int[] weakCount = new int[16];
+
+  /**
+   * Add a node to the graph.
+   *
+   * @param node the node
+   * @return the index of the node
+   */
+  public int addNode(T node) {
+    int index = nodes.size();
+    if (index == strictCount.length) {
+      int capacity = index * 2;
+      strict = Arrays.copyOf(strict, capacity);
+      weak = Arrays.copyOf(weak, capacity);
+      strictCount = Arrays.copyOf(strictCount, capacity);
+      weakCount = Arrays.copyOf(weakCount, capacity);
+    }
+    nodes.add(node);
+    return index;
+  }
+
+  /**
+   * @return the number of nodes in the graph
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  /**
+   * Get the node with the given index.
+   *
+   * @param index the node index
+   * @return the node
+   */
+  public T getNode(int index) {
+    return nodes.get(index);
+  }
+
+  /**
+   * Add a dependency between two nodes.
+   *
+   * @param from the index of the dependent node
+   * @param to the index of the node it depends on
+   * @param isStrict if the dependency is strict
+   */
+  public void addDependency(int from, int to, boolean isStrict) {
+    if (isStrict) {
+      strict[from] = append(strict[from], strictCount[from]++, to);
+    }
+    else {
+      weak[from] = append(weak[from], weakCount[from]++, to);
+    }
+  }
+
+  private static int[] append(int[] array, int size, int value) {
+    if (array == null) {
+      array = new int[4];
+    }
+    else if (size == array.length) {
+      array = Arrays.copyOf(array, size * 2);
+    }
+    array[size] = value;
+    return array;
+  }
+
+  /**
+   * Find the cycles formed by strict dependencies. For each group of nodes
+   * depending on each other one cycle is reported.
+   *
+   * @return the list of cycles, each cycle starting and ending with the same
+   *   node
+   */
+  public List<List<T>> findCycles() {
+    int[][] edges = edges(true, false);
+    List<List<T>> cycles = new ArrayList<>();
+    for (int[] component : stronglyConnected(edges)) {
+      int start = component[0];
+      if (component.length > 1 || contains(edges[start], start)) {
+        cycles.add(cyclePath(edges, component));
+      }
+    }
+    return cycles;
+  }
+
+  /**
+   * Determine the order in which the nodes should be evaluated. Nodes come
+   * after all nodes they depend on, except for nodes depending on each other.
+   *
+   * @return the nodes in evaluation order
+   */
+  public List<T> evaluationOrder() {
+    List<T> result = new ArrayList<>(nodes.size());
+    for (int[] component : stronglyConnected(edges(true, true))) {
+      for (int index : component) {
+        result.add(nodes.get(index));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Group the nodes into levels for evaluation. Nodes in a level only depend
+   * on nodes in previous levels, except for nodes depending on each other,
+   * which are grouped together. Groups in the same level are independent of
+   * each other and may be evaluated concurrently.
+   *
+   * @return the levels, each level is a list of node groups
+   */
+  public List<List<List<T>>> evaluationLevels() {
+    int[][] edges = edges(true, true);
+    List<int[]> components = stronglyConnected(edges);
+
+    int[] componentOf = new int[nodes.size()];
+    for (int c = 0; c < components.size(); c++) {
+      for (int index : components.get(c)) {
+        componentOf[index] = c;
+      }
+    }
+
+    // components are ordered so that dependencies come first
+    int[] level = new int[components.size()];
+    List<List<List<T>>> levels = new ArrayList<>();
+    for (int c = 0; c < components.size(); c++) {
+      int[] component = components.get(c);
+      List<T> group = new ArrayList<>(component.length);
+      for (int index : component) {
+        group.add(nodes.get(index));
+        for (int dependency : edges[index]) {
+          int other = componentOf[dependency];
+          if (other != c) {
+            level[c] = Math.max(level[c], level[other] + 1);
+          }
+        }
+      }
+      while (levels.size() <= level[c]) {
+        levels.add(new ArrayList<>());
+      }
+      levels.get(level[c]).add(group);
+    }
+
+    return levels;
+  }
+
+  private int[][] edges(boolean includeStrict, boolean includeWeak) {
+    int[][] result = new int[nodes.size()][];
+    for (int i = 0; i < result.length; i++) {
+      int count = (includeStrict ? strictCount[i] : 0) + (includeWeak ? weakCount[i] : 0);
+      int[] nodeEdges = new int[count];
+      int pos = 0;
+      if (includeStrict && strictCount[i] > 0) {
+        System.arraycopy(strict[i], 0, nodeEdges, pos, strictCount[i]);
+        pos += strictCount[i];
+      }
+      if (includeWeak && weakCount[i] > 0) {
+        System.arraycopy(weak[i], 0, nodeEdges, pos, weakCount[i]);
+      }
+      result[i] = nodeEdges;
+    }
+    return result;
+  }
+
+  private static boolean contains(int[] array, int value) {
+    for (int element : array) {
+      if (element == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determine the strongly connected components using Tarjan's algorithm.
+   * Components are returned after all components they depend on.
+   */
+  private static List<int[]> stronglyConnected(int[][] edges) {
+    int n = edges.length;
+    int[] index = new int[n];
+    Arrays.fill(index, -1);
+    int[] low = new int[n];
+    boolean[] onStack = new boolean[n];
+    int[] stack = new int[n];
+    int sp = 0;
+    // explicit call stack: node and next edge to visit
+    int[] callNode = new int[n];
+    int[] callEdge = new int[n];
+    int counter = 0;
+    List<int[]> result = new ArrayList<>();
+
+    for (int start = 0; start < n; start++) {
+      if (index[start] != -1) {
+        continue;
+      }
+
+      int csp = 0;
+      callNode[csp] = start;
+      callEdge[csp++] = 0;
+      index[start] = low[start] = counter++;
+      stack[sp++] = start;
+      onStack[start] = true;
+
+      while (csp > 0) {
+        int v = callNode[csp - 1];
+        int e = callEdge[csp - 1];
+        if (e < edges[v].length) {
+          callEdge[csp - 1] = e + 1;
+          int w = edges[v][e];
+          if (index[w] == -1) {
+            index[w] = low[w] = counter++;
+            stack[sp++] = w;
+            onStack[w] = true;
+            callNode[csp] = w;
+            callEdge[csp++] = 0;
+          }
+          else if (onStack[w]) {
+            low[v] = Math.min(low[v], index[w]);
+          }
+        }
+        else {
+          csp--;
+          if (low[v] == index[v]) {
+            int end = sp;
+            int w;
+            while ((w = stack[--sp]) != v) {
+              onStack[w] = false;
+            }
+            onStack[v] = false;
+            int[] component = Arrays.copyOfRange(stack, sp, end);
+            // keep order of discovery within the component
+            Arrays.sort(component);
+            result.add(component);
+          }
+          if (csp > 0) {
+            int u = callNode[csp - 1];
+            low[u] = Math.min(low[u], low[v]);
+          }
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Find a cycle through the first node of a strongly connected component
+   * using a breadth first search.
+   */
+  private List<T> cyclePath(int[][] edges, int[] component) {
+    int start = component[0];
+    int[] parent = new int[nodes.size()];
+    Arrays.fill(parent, -1);
+    for (int member : component) {
+      // mark members as candidates
+      parent[member] = -2;
+    }
+
+    Deque<Integer> queue = new ArrayDeque<>();
+    queue.add(start);
+    int last = -1;
+    while (!queue.isEmpty() && last < 0) {
+      int v = queue.poll();
+      for (int w : edges[v]) {
+        if (w == start) {
+          last = v;
+          break;
+        }
+        if (parent[w] == -2) {
+          parent[w] = v;
+          queue.add(w);
+        }
+      }
+    }
+
+    List<T> path = new ArrayList<>();
+    path.add(nodes.get(start));
+    for (int v = last; v != start; v = parent[v]) {
+      path.add(nodes.get(v));
+    }
+    path.add(nodes.get(start));
+    Collections.reverse(path);
+    return path;
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config.pebble;
+
+import java.util.function.Function;
+
+import io.pebbletemplates.pebble.cache.PebbleCache;
+import io.pebbletemplates.pebble.template.PebbleTemplate;
+import to.wetransform.gradle.swarm.util.LruCache;
+
+/**
+ * Bounded cache for templates compiled from configuration expressions.
+ *
+ * @author Simon Templer
+ */
+public class ExpressionCache implements PebbleCache<Object, PebbleTemplate> {
+
+  private final LruCache<Object, PebbleTemplate> cache;
+
+  /**
+   * Create a new cache.
+   *
+   * @param maxSize the maximum number of compiled expressions to cache
+   */
+  public ExpressionCache(int maxSize) {
+    cache = new LruCache<>(maxSize);
+  }
+
+  @Override
+  public PebbleTemplate computeIfAbsent(Object key,
+    Function<? super Object, ? extends PebbleTemplate> mappingFunction) {
+    return cache.computeIfAbsent(key, mappingFunction);
+  }
+
+  @Override
+  public void invalidateAll() {
+    cache.clear();
+  }
+
+  /**
+   * @return the cache statistics
+   */
+  public LruCache.Stats getStats() {
+    return cache.getStats();
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config.pebble;
+
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * Immutable index of map keys, that assigns each key its position in the
+ * key set. Uses an open addressing hash table with linear probing.
+ *
+ * @author Simon Templer
+ */
+public final class KeyIndex {
+
+  private final Object[] keys;
+
+  /**
+   * Hash table with key positions plus one, zero marks a free slot.
+   */
+  private final int[] table;
+
+  private final int mask;
+
+  /**
+   * Create an index for the given keys.
+   *
+   * @param keys the keys, expected to be distinct (like the key set of a map)
+   */
+  public KeyIndex(Collection<?> keys) {
+    this.keys = keys.toArray();
+
+    int capacity = Integer.highestOneBit(Math.max(4, this.keys.length * 2 - 1)) << 1;
+    table = new int[capacity];
+    mask = capacity - 1;
+
+    for (int i = 0; i < this.keys.length; i++) {
+      int slot = hash(this.keys[i]) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = i + 1;
+    }
+  }
+
+  /**
+   * Get the position of a key.
+   *
+   * @param key the key
+   * @return the position of the key or <code>-1</code> if the key is not
+   *         contained in the index
+   */
+  public int indexOf(Object key) {
+    int slot = hash(key) & mask;
+    int entry;
+    while ((entry = table[slot]) != 0) {
+      if (Objects.equals(keys[entry - 1], key)) {
+        return entry - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the number of keys
+   */
+  public int size() {
+    return keys.length;
+  }
+
+  private static int hash(Object key) {
+    int h = Objects.hashCode(key);
+    return h ^ (h >>> 16);
+  }
+
+}
@@ -16,7 +16,6 @@
 package to.wetransform.gradle.swarm.config.pebble
 
 import groovy.transform.CompileStatic
-import groovy.transform.TypeCheckingMode
 
 import java.io.OutputStream
 import java.io.OutputStreamWriter
@@ -28,10 +27,9 @@ import java.util.Collection
 import java.util.Map
 import java.util.Set
 import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.atomic.AtomicReferenceArray
 import java.util.function.Function
-import java.util.stream.Collectors
-import java.util.stream.Stream
+import java.util.function.Supplier
 
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -60,53 +58,127 @@ import to.wetransform.gradle.swarm.config.ConfigHelper
 @CompileStatic
 public class PebbleCachingEvaluator extends AbstractPebbleEvaluator {
 
+  /**
+   * Marker for values that have not been evaluated yet.
+   */
+  private static final Object UNSET = new Object()
+
+  /**
+   * Marker for values that were evaluated to <code>null</code>.
+   */
+  private static final Object NULL = new Object()
+
+  /**
+   * Number of configuration values being evaluated by the current thread,
+   * over all configurations.
+   */
+  private static final ThreadLocal<int[]> evaluationDepth = ThreadLocal.withInitial({
+    new int[1]
+  } as Supplier<int[]>)
+
+  /**
+   * Evaluation loops are only detected for values evaluated on the same
+   * thread. Code that would continue the evaluation of a value on other
+   * threads (e.g. parallel predicates) should check this and stay on the
+   * current thread instead.
+   *
+   * @return if the current thread is evaluating a configuration value
+   */
+  static boolean isEvaluatingConfiguration() {
+    evaluationDepth.get()[0] > 0
+  }
+
   class PebbleCachingConfig implements Map<String, Object> {
 
     private final Map<String, Object> original
 
-    private final Map<String, Object> evaluated
+    /**
+     * Index of the keys of the original map, used to access evaluated values.
+     */
+    private final KeyIndex keys
 
-    private final List<String> path
+    /**
+     * Evaluated values by key index.
+     */
+    private final AtomicReferenceArray<Object> evaluated
 
-    private final ThreadLocal<Set<Object>> evaluating = new ThreadLocal<Set<Object>>() {
-      @Override
-      protected Set<Object> initialValue() {
-        return new HashSet<Object>()
-      }
-    }
+    /**
+     * Keys being evaluated by the current thread, per map.
+     * Shared by all maps of a configuration.
+     */
+    private final ThreadLocal<Map<PebbleCachingConfig, BitSet>> evaluating
 
     private final PebbleCachingConfig root
 
-    PebbleCachingConfig(Map<String, Object> original, PebbleCachingConfig root, List<String> path) {
+    private final PebbleCachingConfig parent
+
+    private final String name
+
+    /**
+     * Context for evaluating the values of this map, created on first use and
+     * shared by all values.
+     */
+    private volatile Map<String, Object> scope
+
+    PebbleCachingConfig(Map<String, Object> original, PebbleCachingConfig root, PebbleCachingConfig parent,
+      String name) {
       if (original instanceof PebbleCachingConfig) throw new IllegalStateException('Cannot wrap a PebbleCachingConfig (would result in multiple evaluations)')
 
       this.original = original
-      /*
-       * Use concurrent skip list map to avoid ConcurrentModificationException that can happen if
-       * computeIfAbsent is called recursively or from different threads (HashMap since Java 9) or
-       * running into a deadlock (when using ConcurrentHashMap).
-       */
-      this.evaluated = new ConcurrentSkipListMap<>()
+      this.keys = new KeyIndex(original.keySet())
+      this.evaluated = new AtomicReferenceArray<>(keys.size())
+      for (int i = 0; i < keys.size(); i++) {
+        evaluated.lazySet(i, UNSET)
+      }
       this.root = root
-      this.path = path
+      this.parent = parent
+      this.name = name
+      if (root == null) {
+        this.evaluating = ThreadLocal.withInitial({
+          new IdentityHashMap<PebbleCachingConfig, BitSet>()
+        } as Supplier<Map<PebbleCachingConfig, BitSet>>)
+      }
+      else {
+        this.evaluating = root.evaluating
+      }
     }
 
-    private Object evaluate(Object key) {
-      // add to set of keys being evaluated so we can detect attempts to get the same key in the same thread (loop)
-      boolean wasNew = evaluating.get().add(key)
-      if (!wasNew) {
+    private Object evaluate(Object key, int index) {
+      // mark key as being evaluated so we can detect attempts to get the same key in the same thread (loop)
+      Map<PebbleCachingConfig, BitSet> active = evaluating.get()
+      BitSet keysEvaluating = active.get(this)
+      if (keysEvaluating == null) {
+        keysEvaluating = new BitSet(keys.size())
+        active.put(this, keysEvaluating)
+      }
+      else if (keysEvaluating.get(index)) {
         throw new IllegalStateException("[${pathString()}] Evaluation of key $key results in an evaluation loop")
       }
+      keysEvaluating.set(index)
+      int[] depth = evaluationDepth.get()
+      depth[0]++
       try {
-        def value = original.get(key)
+        def value = evaluateObject(original.get(key), key.toString())
 
-        return evaluateObject(value, key)
+        // if another thread evaluated the key in the meantime, use its value
+        if (!evaluated.compareAndSet(index, UNSET, value == null ? NULL : value)) {
+          value = unwrap(evaluated.get(index))
+        }
+        return value
       } finally {
-        evaluating.get().remove(key)
+        depth[0]--
+        keysEvaluating.clear(index)
+        if (keysEvaluating.isEmpty()) {
+          active.remove(this)
+        }
       }
     }
 
-    private def evaluateObject(Object value, Object key) {
+    private Object unwrap(Object value) {
+      value.is(NULL) ? null : value
+    }
+
+    private def evaluateObject(Object value, String childName) {
       if (value == null) {
         return null
       }
@@ -115,12 +187,12 @@ public class PebbleCachingEvaluator extends AbstractPebbleEvaluator {
         return value
       }
       else if (value instanceof Map) {
-        return new PebbleCachingConfig(value, root ?: this, buildChildPath(key, null))
+        return new PebbleCachingConfig(value, root ?: this, this, childName)
       }
       else if (value instanceof List) {
         int index = 0
         return value.collect { Object obj ->
-          this.evaluateObject(obj, buildChildPath(key, index++))
+          this.evaluateObject(obj, childName + '[' + (index++) + ']')
         }.toList()
       }
       else if (value instanceof String || value instanceof GString) {
@@ -133,26 +205,43 @@ public class PebbleCachingEvaluator extends AbstractPebbleEvaluator {
     }
 
     private def evaluateValue(String value) {
-      Map context
-      if (root == null) {
-        // this is root
-        context = this
-      }
-      else {
-        // this is local
-        context = new RootOrLocalMap(root, this, false, true)
+      if (AbstractPebbleEvaluator.isLiteral(value)) {
+        // no need to involve Pebble
+        return convertResult(value)
       }
 
       PebbleTemplate compiledTemplate = PebbleCachingEvaluator.this.engine.getTemplate(value)
       StringWriter writer = new StringWriter()
-      if (PebbleCachingEvaluator.this.lenient) {
-        compiledTemplate.evaluate(writer, context)
+      // values passed to the expand filter are handed over directly
+      ExpandFilter.Expansion expansion = ExpandFilter.beginExpansion()
+      try {
+        compiledTemplate.evaluate(writer, scope())
+        String result = writer.toString()
+        Object expanded = expansion.resolve(result)
+        return expanded.is(result) ? convertResult(result) : expanded
+      } finally {
+        expansion.end()
       }
-      else {
-        compiledTemplate.evaluate(writer, new LazyContextWrapper(context))
+    }
+
+    /**
+     * @return the context for evaluating values of this map
+     */
+    private Map<String, Object> scope() {
+      Map<String, Object> result = scope
+      if (result == null) {
+        // this is root, or resolve via root and locally
+        result = root == null ? this : new RootOrLocalMap(root, this, false, true)
+        if (!PebbleCachingEvaluator.this.lenient) {
+          result = new LazyContextWrapper(result)
+        }
+        // creating the context concurrently is harmless, so no locking
+        scope = result
       }
-      def result = writer.toString()
+      result
+    }
 
+    private def convertResult(String result) {
       // "hack" to convert to a boolean (for conditions)
       if ('true' == result) {
         true
@@ -161,7 +250,7 @@ public class PebbleCachingEvaluator extends AbstractPebbleEvaluator {
         false
       }
       else {
-        ExpandFilter.expandString(result)
+        result
       }
     }
 
@@ -185,16 +274,19 @@ public class PebbleCachingEvaluator extends AbstractPebbleEvaluator {
       throw new UnsupportedOperationException('Not implemented')
     }
 
-    @CompileStatic(TypeCheckingMode.SKIP)
     @Override
     public Object get(Object key) {
-      boolean isBeingEvaluated = evaluating.get().contains(key)
-      if (isBeingEvaluated) {
-        // Note: we need to do this check before computeIfAbsent is called because computeIfAbsent
-        // may otherwise stall forever waiting for the other evaluations to be complete
-        throw new IllegalStateException("[${pathString()}] Evaluation of key $key results in an evaluation loop")
+      int index = keys.indexOf(key)
+      if (index < 0) {
+        // key not contained in the key set, may still be resolvable by the original map
+        return evaluateObject(original.get(key), key?.toString())
       }
-      return evaluated.computeIfAbsent(key, this.&evaluate)
+
+      Object value = evaluated.get(index)
+      if (!value.is(UNSET)) {
+        return unwrap(value)
+      }
+      return evaluate(key, index)
     }
 
     @Override
@@ -248,30 +340,16 @@ public class PebbleCachingEvaluator extends AbstractPebbleEvaluator {
       return new LinkedHashMap(this)
     }
 
-    private List<String> buildChildPath(Object key, Integer index) {
-      List<String> childPath = null
-      if (key != null) {
-        def keyStr = key.toString()
-        if (index != null) {
-          keyStr = keyStr + '[' + index + ']'
-        }
-        if (path != null) {
-          childPath = Stream.concat(path.stream(), Stream.of(keyStr))
-            .collect(Collectors.toList())
-        } else {
-          childPath = Arrays.asList(keyStr)
-        }
-      }
-      return childPath
-    }
-
     private String pathString() {
-      if (path == null || path.isEmpty()) {
+      if (parent == null) {
         return '<root>'
       }
-      else {
-        return path.join('.')
+
+      Deque<String> names = new ArrayDeque<>()
+      for (PebbleCachingConfig config = this; config.parent != null; config = config.parent) {
+        names.addFirst(config.name)
       }
+      return names.join('.')
     }
   }
 
@@ -295,6 +373,6 @@ public class PebbleCachingEvaluator extends AbstractPebbleEvaluator {
   public Map<String, Object> evaluate(Map<String, Object> config) {
     init()
 
-    return new PebbleCachingConfig(config, null, null)
+    return new PebbleCachingConfig(config, null, null, null)
   }
 }
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config.pebble
+
+import groovy.transform.CompileStatic
+
+import java.util.function.Consumer
+import java.util.function.Supplier
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import to.wetransform.gradle.swarm.actions.assemble.template.SwarmComposerExtension
+import to.wetransform.gradle.swarm.util.FileAccessRecorder
+
+/**
+ * Evaluates configuration based on Pebble templates, like {@link PebbleCachingEvaluator}.
+ * In addition, the dependencies between all values are determined before evaluation.
+ * Values are evaluated in an order where referenced values have already been evaluated,
+ * which avoids deep recursion. References that are only evaluated depending on a
+ * condition (e.g. in the branches of a ternary expression) only influence the order.
+ *
+ * Errors during evaluation, including evaluation loops, are reported when the respective
+ * value is accessed, the same as for {@link PebbleCachingEvaluator}. Loops that are
+ * detected up front are logged, so configurations that contain loops in values that are
+ * never used can still be evaluated.
+ *
+ * Optionally, values that do not depend on each other are evaluated in parallel, using
+ * the common fork join pool. As each value only depends on the values it references,
+ * and errors are only reported on access, the result does not depend on the order of
+ * evaluation.
+ *
+ * @author Simon Templer
+ */
+@CompileStatic
+class PebbleGraphEvaluator extends PebbleCachingEvaluator {
+
+  private static final Logger log = LoggerFactory.getLogger(PebbleGraphEvaluator)
+
+  /**
+   * Minimum number of independent groups of values for evaluating them in parallel.
+   */
+  private static final int PARALLEL_THRESHOLD = 8
+
+  /**
+   * If values that do not depend on each other should be evaluated in parallel.
+   */
+  boolean parallel = false
+
+  /**
+   * Value in the configuration that needs to be evaluated.
+   */
+  protected static class ValueNode {
+
+    /**
+     * Path of the value in the configuration.
+     */
+    final List<Object> path
+
+    /**
+     * Path of the map containing the value, which is used for local references.
+     */
+    final List<Object> mapPath
+
+    final Object value
+
+    int index
+
+    ValueNode(List<Object> path, List<Object> mapPath, Object value) {
+      this.path = path
+      this.mapPath = mapPath
+      this.value = value
+    }
+
+    @Override
+    String toString() {
+      path.join('.')
+    }
+  }
+
+  PebbleGraphEvaluator() {
+    this(null)
+  }
+
+  PebbleGraphEvaluator(File rootDir) {
+    super(rootDir)
+  }
+
+  PebbleGraphEvaluator(boolean lenient, File rootDir) {
+    super(lenient, rootDir)
+  }
+
+  PebbleGraphEvaluator(boolean lenient, SwarmComposerExtension sce) {
+    super(lenient, sce)
+  }
+
+  @Override
+  Map<String, Object> evaluate(Map<String, Object> config) {
+    Map<String, Object> result = super.evaluate(config)
+
+    EvaluationGraph<ValueNode> graph = buildGraph(config)
+
+    List<List<ValueNode>> cycles = graph.findCycles()
+    if (!cycles.isEmpty() && log.isDebugEnabled()) {
+      // an error is only raised if one of the values is accessed
+      log.debug('Evaluation loops detected in configuration:\n' +
+        cycles.collect { List<ValueNode> cycle -> '  ' + cycle.join(' -> ') }.join('\n'))
+    }
+
+    if (parallel) {
+      // files accessed on other threads belong to the recording of the caller
+      FileAccessRecorder.Recording recording = FileAccessRecorder.current()
+      Consumer<List<ValueNode>> evaluateGroup = { List<ValueNode> group ->
+        FileAccessRecorder.withRecording(recording, {
+          for (ValueNode node : group) {
+            preEvaluate(result, node)
+          }
+          null
+        } as Supplier)
+      } as Consumer<List<ValueNode>>
+      for (List<List<ValueNode>> level : graph.evaluationLevels()) {
+        if (level.size() < PARALLEL_THRESHOLD) {
+          level.forEach(evaluateGroup)
+        }
+        else {
+          level.parallelStream().forEach(evaluateGroup)
+        }
+      }
+    }
+    else {
+      for (ValueNode node : graph.evaluationOrder()) {
+        preEvaluate(result, node)
+      }
+    }
+
+    result
+  }
+
+  /**
+   * Evaluate a value so it is cached in the evaluated configuration.
+   * Errors are ignored, they are raised again when the value is accessed.
+   */
+  private void preEvaluate(Map<String, Object> evaluated, ValueNode node) {
+    try {
+      Object current = evaluated
+      for (Object key : node.path) {
+        current = ((Map) current).get(key)
+      }
+    } catch (Exception e) {
+      log.debug("Evaluation of $node failed, error is deferred to when the value is accessed", e)
+    }
+  }
+
+  /**
+   * Build the dependency graph for the values of a configuration.
+   *
+   * @param config the configuration
+   * @return the dependency graph
+   */
+  protected EvaluationGraph<ValueNode> buildGraph(Map<String, Object> config) {
+    EvaluationGraph<ValueNode> graph = new EvaluationGraph<>()
+    Map<List<Object>, ValueNode> nodes = [:]
+    collectNodes(config, [], graph, nodes)
+
+    Map<List<Object>, List<ValueNode>> subtrees = [:]
+    for (int i = 0; i < graph.size(); i++) {
+      ValueNode node = graph.getNode(i)
+      Collection<List<String>> strict = new LinkedHashSet<>()
+      Collection<List<String>> conditional = new LinkedHashSet<>()
+      valueDependencies(node.value, strict, conditional)
+      conditional.removeAll(strict)
+      for (List<String> dependency : strict) {
+        List<Object> target = resolveReference(config, node.mapPath, dependency)
+        addDependency(graph, node, config, target, true, nodes, subtrees)
+      }
+      for (List<String> dependency : conditional) {
+        List<Object> target = resolveReference(config, node.mapPath, dependency)
+        addDependency(graph, node, config, target, false, nodes, subtrees)
+      }
+    }
+
+    graph
+  }
+
+  private void collectNodes(Map map, List<Object> mapPath, EvaluationGraph<ValueNode> graph,
+    Map<List<Object>, ValueNode> nodes) {
+    map.each { Object key, Object value ->
+      List<Object> path = new ArrayList<>(mapPath)
+      path << key
+      if (value instanceof PebbleCachingEvaluator.PebbleCachingConfig) {
+        // already evaluated separately
+      }
+      else if (value instanceof Map) {
+        collectNodes((Map) value, path, graph, nodes)
+      }
+      else if (value instanceof List || value instanceof CharSequence) {
+        ValueNode node = new ValueNode(path, mapPath, value)
+        node.index = graph.addNode(node)
+        nodes.put(path, node)
+      }
+    }
+  }
+
+  /**
+   * Determine the references of a value, separated into references that are
+   * always evaluated and references that are only evaluated depending on a
+   * condition. For lists the references of all contained strings are
+   * combined, as lists are evaluated as a whole. Maps in lists are evaluated
+   * separately.
+   */
+  private void valueDependencies(Object value, Collection<List<String>> strict,
+    Collection<List<String>> conditional) {
+    if (value instanceof CharSequence) {
+      DependencyCollectorVisitor visitor = collectDependencies(value.toString())
+      if (visitor != null) {
+        Set<List<String>> conditionalOnly = visitor.conditionalDependencies
+        conditional.addAll(conditionalOnly)
+        for (List<String> dependency : visitor.dependencies) {
+          if (!conditionalOnly.contains(dependency)) {
+            strict.add(dependency)
+          }
+        }
+      }
+    }
+    else if (value instanceof List) {
+      for (Object item : (List) value) {
+        valueDependencies(item, strict, conditional)
+      }
+    }
+  }
+
+  /**
+   * Determine the absolute path of a reference, the same way a
+   * {@link RootOrLocalMap} resolves variables.
+   */
+  private static List<Object> resolveReference(Map<String, Object> config, List<Object> mapPath,
+    List<String> reference) {
+    if (reference.isEmpty()) {
+      return []
+    }
+
+    String first = reference[0]
+    if (mapPath.isEmpty() || config.containsKey(first)) {
+      return new ArrayList<Object>(reference)
+    }
+
+    List<Object> result = new ArrayList<>(mapPath)
+    if (RootOrLocalMap.LOCAL_ACCESS_KEY == first && !containsKey(config, mapPath, first)) {
+      result.addAll(reference.subList(1, reference.size()))
+    }
+    else {
+      result.addAll(reference)
+    }
+    result
+  }
+
+  private static boolean containsKey(Map<String, Object> config, List<Object> mapPath, String key) {
+    Object current = config
+    for (Object pathKey : mapPath) {
+      current = ((Map) current).get(pathKey)
+    }
+    current instanceof Map && ((Map) current).containsKey(key)
+  }
+
+  /**
+   * Add the dependency to a referenced path. If the path leads to a value
+   * that needs evaluation, the dependency is strict, unless the reference is
+   * only evaluated depending on a condition. If the path leads to a map,
+   * there are weak dependencies to all values in the map.
+   */
+  private static void addDependency(EvaluationGraph<ValueNode> graph, ValueNode node, Map<String, Object> config,
+    List<Object> target, boolean strict, Map<List<Object>, ValueNode> nodes,
+    Map<List<Object>, List<ValueNode>> subtrees) {
+    Object current = config
+    List<Object> path = []
+    for (Object key : target) {
+      if (!(current instanceof Map) || !((Map) current).containsKey(key)) {
+        // unknown reference - reported on evaluation
+        return
+      }
+      current = ((Map) current).get(key)
+      path << key
+
+      ValueNode referenced = nodes.get(path)
+      if (referenced != null) {
+        graph.addDependency(node.index, referenced.index, strict)
+        return
+      }
+    }
+
+    if (current instanceof Map) {
+      Map subtree = (Map) current
+      List<ValueNode> contained = subtrees.computeIfAbsent(path) { List<Object> p ->
+        List<ValueNode> list = []
+        collectContained(subtree, p, nodes, list)
+        list
+      }
+      for (ValueNode referenced : contained) {
+        if (!referenced.is(node)) {
+          graph.addDependency(node.index, referenced.index, false)
+        }
+      }
+    }
+  }
+
+  private static void collectContained(Map map, List<Object> mapPath, Map<List<Object>, ValueNode> nodes,
+    List<ValueNode> result) {
+    map.each { Object key, Object value ->
+      List<Object> path = new ArrayList<>(mapPath)
+      path << key
+      ValueNode node = nodes.get(path)
+      if (node != null) {
+        result << node
+      }
+      else if (value instanceof Map) {
+        collectContained((Map) value, path, nodes, result)
+      }
+    }
+  }
+}
@@ -15,10 +15,11 @@
  */
 package to.wetransform.gradle.swarm.config.pebble;
 
+import java.util.AbstractSet;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedHashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -38,6 +39,75 @@ public class RootOrLocalMap implements Map<String, Object> {
   private final boolean allowPut;
   private final boolean localAccess;
 
+  private final Set<String> keySet = new KeySet();
+
+  /**
+   * Read-only view on the keys of root and local map. Keys of the local map that are
+   * also present in the root map are skipped.
+   */
+  private class KeySet extends AbstractSet<String> {
+
+    @Override
+    public int size() {
+      int size = root.size();
+      for (String key : local.keySet()) {
+        if (!root.containsKey(key)) {
+          size++;
+        }
+      }
+      return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return root.isEmpty() && local.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object key) {
+      return containsKey(key);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return new Iterator<String>() {
+
+        private final Iterator<String> rootKeys = root.keySet().iterator();
+        private final Iterator<String> localKeys = local.keySet().iterator();
+        private String next;
+        private boolean hasNext;
+
+        @Override
+        public boolean hasNext() {
+          if (hasNext) {
+            return true;
+          }
+          if (rootKeys.hasNext()) {
+            next = rootKeys.next();
+            hasNext = true;
+          }
+          while (!hasNext && localKeys.hasNext()) {
+            String key = localKeys.next();
+            if (!root.containsKey(key)) {
+              next = key;
+              hasNext = true;
+            }
+          }
+          return hasNext;
+        }
+
+        @Override
+        public String next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          hasNext = false;
+          return next;
+        }
+      };
+    }
+  }
+
   public RootOrLocalMap(Map<String, Object> root, Map<String, Object> local, boolean allowPut, boolean localAccess) {
     super();
 
@@ -54,7 +124,7 @@ public class RootOrLocalMap implements Map<String, Object> {
 
   @Override
   public int size() {
-    return keySet().size();
+    return keySet.size();
   }
 
   @Override
@@ -116,9 +186,7 @@ public class RootOrLocalMap implements Map<String, Object> {
 
   @Override
   public Set<String> keySet() {
-    Set<String> keys = new LinkedHashSet<>(root.keySet());
-    keys.addAll(local.keySet());
-    return Collections.unmodifiableSet(keys);
+    return keySet;
   }
 
   @Override
@@ -15,6 +15,10 @@
  */
 package to.wetransform.gradle.swarm.crypt;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
 /**
  * Encryption and decryption interface.
  *
@@ -26,4 +30,57 @@ public interface Cryptor {
 
   String decrypt(String encrypted, String password) throws Exception;
 
+  /**
+   * Check if an encrypted value represents the given plain value. This is
+   * used to reuse existing encryptions if a value did not change.
+   * Implementations may override this to check without decrypting the value.
+   *
+   * @param plain the plain value
+   * @param encrypted the encrypted value
+   * @param password the password
+   * @return if the encrypted value represents the plain value, <code>false</code>
+   *         if the encrypted value cannot be decrypted with the password
+   */
+  default boolean matches(String plain, String encrypted, String password) {
+    try {
+      return Objects.equals(plain, decrypt(encrypted, password));
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * Encrypt a batch of values. Implementations may override this to share
+   * work between the values.
+   *
+   * @param plain the values to encrypt
+   * @param password the password
+   * @return the encrypted values, in the same order
+   * @throws Exception if encrypting any of the values fails
+   */
+  default List<String> encryptAll(List<String> plain, String password) throws Exception {
+    List<String> result = new ArrayList<>(plain.size());
+    for (String value : plain) {
+      result.add(encrypt(value, password));
+    }
+    return result;
+  }
+
+  /**
+   * Decrypt a batch of values. Implementations may override this to share
+   * work between the values.
+   *
+   * @param encrypted the values to decrypt
+   * @param password the password
+   * @return the decrypted values, in the same order
+   * @throws Exception if decrypting any of the values fails
+   */
+  default List<String> decryptAll(List<String> encrypted, String password) throws Exception {
+    List<String> result = new ArrayList<>(encrypted.size());
+    for (String value : encrypted) {
+      result.add(decrypt(value, password));
+    }
+    return result;
+  }
+
 }
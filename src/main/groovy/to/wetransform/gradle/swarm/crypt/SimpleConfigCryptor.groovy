@@ -15,64 +15,235 @@
  */
 package to.wetransform.gradle.swarm.crypt
 
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+
 import java.util.List
 import java.util.Map
-import java.util.Set
-import java.util.function.Function
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
 /**
  * Applies encryption/decryption to configuration.
  *
+ * All values to encrypt or decrypt are collected first and then passed in
+ * batches to the {@link Cryptor}. Batches are processed in parallel if there
+ * are enough values, so the cryptor must be thread safe in that case.
+ *
+ * Lists, numbers and booleans are encrypted as a whole, as JSON with a type
+ * tag. On decryption they are restored to their original type.
+ *
  * @author Simon Templer
  */
 class SimpleConfigCryptor implements ConfigCryptor {
 
+  /**
+   * Number of values processed in one batch.
+   */
+  static final int BATCH_SIZE = 32
+
+  /**
+   * Prefix of encrypted plain text that holds a typed value as JSON, instead
+   * of a string value.
+   */
+  static final String TYPED_PREFIX = '\u0000typed:'
+
+  /**
+   * A string value in the configuration.
+   */
+  private static class Leaf {
+    Map parent
+    def key
+    String value
+    List path
+  }
+
   private final Cryptor cryptor
 
+  private final int parallelism
 
   SimpleConfigCryptor(Cryptor cryptor) {
+    this(cryptor, Runtime.runtime.availableProcessors())
+  }
+
+  /**
+   * Create a configuration cryptor.
+   *
+   * @param cryptor the cryptor for single values
+   * @param parallelism the maximum number of threads to use, one to process
+   *   all values on the calling thread
+   */
+  SimpleConfigCryptor(Cryptor cryptor, int parallelism) {
     super()
     this.cryptor = cryptor
+    this.parallelism = Math.max(1, parallelism)
   }
 
   @Override
   Map<String, Object> encrypt(Map<String, Object> config, String password, Map<String, Object> reference) throws Exception {
-    apply(config) { value, path ->
-      def reuse
-
-      if (reference) {
-        // look up path and check if value should be reused
-        def refValue = reference
-        for (int i = 0; i < path.size() && refValue; i++) {
-          refValue = refValue?."${path[i]}"
-        }
-        if (refValue) {
-          refValue = refValue.toString()
-          try {
-            def decrypted = cryptor.decrypt(refValue, password)
-            if (decrypted == value) {
-              reuse = refValue
-            }
-          } catch (Exception e) {
-            // ignore
-          }
-        }
+    List<Leaf> leaves = collect(config, true)
+    List<String> encrypted = process(leaves) { List<Leaf> batch ->
+      // reuse existing encryptions from reference
+      List<String> result = batch.collect { Leaf leaf ->
+        reference ? reuse(leaf, reference, password) : null
       }
 
-      reuse ?: cryptor.encrypt(value, password)
+      List<Integer> missing = (0..<batch.size()).findAll { result[it] == null }
+      if (missing) {
+        List<String> values = cryptor.encryptAll(missing.collect { batch[it].value }, password)
+        missing.eachWithIndex { int index, int i ->
+          result[index] = values[i]
+        }
+      }
+      result
     }
+    update(leaves, encrypted)
     config
   }
 
   @Override
   Map<String, Object> decrypt(Map<String, Object> config, String password) throws Exception {
-    apply(config) { value ->
-      cryptor.decrypt(value, password)
+    List<Leaf> leaves = collect(config, false)
+    List<String> decrypted = process(leaves) { List<Leaf> batch ->
+      cryptor.decryptAll(batch*.value, password)
     }
+    update(leaves, decrypted.collect { decode(it) })
     config
   }
 
-  private void apply(Map config, Closure crypt, List path = []) {
+  /**
+   * Encode a value that is not a string as typed JSON.
+   */
+  static String encode(Object value) {
+    String type
+    if (value instanceof List) {
+      type = 'list'
+    }
+    else if (value instanceof Boolean) {
+      type = 'boolean'
+    }
+    else if (value instanceof Integer || value instanceof Long || value instanceof BigInteger) {
+      type = 'integer'
+    }
+    else {
+      type = 'decimal'
+    }
+    TYPED_PREFIX + JsonOutput.toJson([type: type, value: value])
+  }
+
+  /**
+   * Decode a decrypted value, restoring typed values.
+   */
+  static Object decode(String value) {
+    if (!value.startsWith(TYPED_PREFIX)) {
+      return value
+    }
+
+    Map typed = (Map) new JsonSlurper().parseText(value.substring(TYPED_PREFIX.length()))
+    switch (typed.type) {
+      case 'decimal':
+        return typed.value as Double
+      default:
+        return normalize(typed.value)
+    }
+  }
+
+  /**
+   * Convert values parsed from JSON to the types used for configuration
+   * loaded from YAML.
+   */
+  private static Object normalize(Object value) {
+    if (value instanceof Map) {
+      Map result = new LinkedHashMap()
+      ((Map) value).each { key, item ->
+        result.put(key, normalize(item))
+      }
+      result
+    }
+    else if (value instanceof List) {
+      ((List) value).collect { normalize(it) }
+    }
+    else if (value instanceof BigDecimal) {
+      value as Double
+    }
+    else {
+      value
+    }
+  }
+
+  /**
+   * Determine the encrypted reference value for a value, if it can be reused.
+   */
+  private String reuse(Leaf leaf, Map reference, String password) {
+    // look up path and check if value should be reused
+    def refValue = reference
+    for (int i = 0; i < leaf.path.size() && refValue; i++) {
+      refValue = refValue instanceof Map ? ((Map) refValue).get(leaf.path[i]) : null
+    }
+    if (refValue) {
+      refValue = refValue.toString()
+      if (cryptor.matches(leaf.value, refValue, password)) {
+        return refValue
+      }
+    }
+    null
+  }
+
+  /**
+   * Process the values in batches, in parallel if there is more than one
+   * batch.
+   *
+   * @param leaves the values to process
+   * @param batch closure processing a list of values and returning the results
+   *   in the same order
+   * @return the results for all values, in the same order
+   */
+  private List<String> process(List<Leaf> leaves, Closure<List<String>> batch) {
+    if (parallelism == 1 || leaves.size() <= BATCH_SIZE) {
+      return batch(leaves)
+    }
+
+    List<List<Leaf>> batches = leaves.collate(BATCH_SIZE)
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, batches.size()))
+    try {
+      List<Future<List<String>>> futures = batches.collect { List<Leaf> values ->
+        executor.submit({ batch(values) } as Callable<List<String>>)
+      }
+
+      List<String> result = []
+      futures.each { Future<List<String>> future ->
+        try {
+          result.addAll(future.get())
+        } catch (ExecutionException e) {
+          throw e.cause instanceof Exception ? e.cause : e
+        }
+      }
+      result
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+
+  /**
+   * Replace the values in the configuration.
+   */
+  private static void update(List<Leaf> leaves, List values) {
+    leaves.eachWithIndex { Leaf leaf, int index ->
+      leaf.parent.put(leaf.key, values[index])
+    }
+  }
+
+  /**
+   * Collect the values to encrypt or decrypt in the configuration.
+   *
+   * @param config the configuration
+   * @param typed if lists, numbers and booleans should be collected as typed
+   *   values, otherwise only strings are collected
+   */
+  private static List<Leaf> collect(Map config, boolean typed, List path = [], List<Leaf> leaves = []) {
     def keys = new LinkedHashSet(config.keySet())
 
     keys.each { key ->
@@ -83,27 +254,19 @@ class SimpleConfigCryptor implements ConfigCryptor {
         childPath.addAll(path)
         childPath.add(key)
 
-        if (value instanceof List) {
-          //FIXME lists are not supported ATM
+        if (value instanceof String || value instanceof GString) {
+          leaves << new Leaf(parent: config, key: key, value: value.toString(), path: childPath)
         }
-        else if (value instanceof String || value instanceof GString) {
-          // evaluate value
-
-          def newValue
-          if (crypt.maximumNumberOfParameters > 1) {
-            newValue = crypt(value.toString(), childPath)
-          }
-          else {
-            newValue = crypt(value.toString())
-          }
-
-          config.put(key, newValue)
+        // lists and scalars are encrypted as a whole
+        else if (typed && (value instanceof List || value instanceof Number || value instanceof Boolean)) {
+          leaves << new Leaf(parent: config, key: key, value: encode(value), path: childPath)
         }
         // proceed to child maps
         else if (value instanceof Map) {
-          apply(value, crypt, childPath)
+          collect(value, typed, childPath, leaves)
         }
       }
     }
+    leaves
   }
 }
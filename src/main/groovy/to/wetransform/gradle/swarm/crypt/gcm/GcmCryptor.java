@@ -0,0 +1,388 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.crypt.gcm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.annotation.Nullable;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import to.wetransform.gradle.swarm.crypt.Cryptor;
+import to.wetransform.gradle.swarm.util.LruCache;
+
+/**
+ * Cryptor using AES-GCM with a key derived from the password only once per
+ * salt, instead of once per value.
+ *
+ * Each instance uses a single salt for encryption, so values encrypted with the
+ * same instance (e.g. the values of one vault file) share the derived keys. The
+ * salt is random, unless an existing salt is provided (e.g. the one of the
+ * vault file that is updated). Every value is encrypted with a unique random IV. Encrypted values have
+ * the form <code>gcm1:&lt;salt&gt;:&lt;digest&gt;:&lt;iv and cipher text&gt;</code>,
+ * with salt, digest, IV and cipher text Base64 encoded.
+ *
+ * The digest is an HMAC of the plain value, with a key expanded from the key
+ * derived from password and salt. It allows checking if an encrypted value
+ * represents a plain value without decrypting it (see
+ * {@link #matches(String, String, String)}).
+ *
+ * Values not in this format (e.g. values encrypted with the Alice based
+ * cryptor) are decrypted with the fallback cryptor, if one is configured.
+ *
+ * @author Simon Templer
+ */
+public class GcmCryptor implements Cryptor {
+
+  /**
+   * Prefix of encrypted values.
+   */
+  public static final String PREFIX = "gcm1:";
+
+  private static final String KEY_ALGORITHM = "PBKDF2WithHmacSHA256";
+
+  private static final String CIPHER = "AES/GCM/NoPadding";
+
+  private static final int ITERATIONS = 100000;
+
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+
+  /**
+   * Length of the key derived from the password, which is used for encryption
+   * and to expand the digest key from.
+   */
+  private static final int KEY_LENGTH = 256;
+
+  /**
+   * Label used to expand the digest key from the derived key.
+   */
+  private static final byte[] DIGEST_KEY_LABEL = "gcm1-digest".getBytes(StandardCharsets.UTF_8);
+
+  private static final int SALT_LENGTH = 16;
+
+  private static final int IV_LENGTH = 12;
+
+  private static final int TAG_LENGTH = 128;
+
+  /**
+   * Derived keys, by a hash of password and salt. Futures are cached so
+   * threads requesting the same keys wait for a single derivation.
+   */
+  private static final LruCache<String, CompletableFuture<Keys>> keys = new LruCache<>(64);
+
+  private static final SecureRandom random = new SecureRandom();
+
+  private static final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+    try {
+      return Cipher.getInstance(CIPHER);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("AES-GCM not supported", e);
+    }
+  });
+
+  private static final ThreadLocal<Mac> macs = ThreadLocal.withInitial(() -> {
+    try {
+      return Mac.getInstance(MAC_ALGORITHM);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HMAC-SHA256 not supported", e);
+    }
+  });
+
+  /**
+   * Keys derived from a password and salt.
+   */
+  private static final class Keys {
+
+    private final SecretKey encryption;
+
+    private final SecretKey digest;
+
+    Keys(byte[] key) {
+      this.encryption = new SecretKeySpec(key, "AES");
+
+      // expand the digest key with an HMAC of a fixed label, instead of a
+      // second (equally expensive) PBKDF2 block
+      byte[] digestKey = hmac(new SecretKeySpec(key, MAC_ALGORITHM), DIGEST_KEY_LABEL);
+      try {
+        this.digest = new SecretKeySpec(digestKey, MAC_ALGORITHM);
+      } finally {
+        Arrays.fill(digestKey, (byte) 0);
+      }
+    }
+
+  }
+
+  /**
+   * Parts of an encrypted value.
+   */
+  private static final class Encrypted {
+
+    private final String salt;
+
+    private final String digest;
+
+    private final String data;
+
+    Encrypted(String value) {
+      String[] parts = value.substring(PREFIX.length()).split(":", -1);
+      if (parts.length == 3) {
+        salt = parts[0];
+        digest = parts[1];
+        data = parts[2];
+      } else if (parts.length == 2) {
+        // value without digest
+        salt = parts[0];
+        digest = null;
+        data = parts[1];
+      } else {
+        throw new IllegalArgumentException("Invalid encrypted value");
+      }
+    }
+
+  }
+
+  private final Cryptor fallback;
+
+  /**
+   * Salt used for encryption, Base64 encoded.
+   */
+  private final String salt;
+
+  /**
+   * Create a cryptor without fallback for other formats.
+   */
+  public GcmCryptor() {
+    this(null);
+  }
+
+  /**
+   * Create a cryptor.
+   *
+   * @param fallback the cryptor to decrypt values with that are not in the
+   *          format of this cryptor, may be <code>null</code>
+   */
+  public GcmCryptor(@Nullable Cryptor fallback) {
+    this(fallback, null);
+  }
+
+  /**
+   * Create a cryptor encrypting with the given salt.
+   *
+   * @param fallback the cryptor to decrypt values with that are not in the
+   *          format of this cryptor, may be <code>null</code>
+   * @param salt the Base64 encoded salt to use for encryption, e.g. as
+   *          determined with {@link #getSalt(String)}, <code>null</code> for a
+   *          random salt
+   */
+  public GcmCryptor(@Nullable Cryptor fallback, @Nullable String salt) {
+    super();
+    this.fallback = fallback;
+
+    if (salt != null) {
+      if (Base64.getDecoder().decode(salt).length == 0) {
+        throw new IllegalArgumentException("Salt must not be empty");
+      }
+      this.salt = salt;
+    } else {
+      byte[] saltBytes = new byte[SALT_LENGTH];
+      random.nextBytes(saltBytes);
+      this.salt = Base64.getEncoder().encodeToString(saltBytes);
+    }
+  }
+
+  /**
+   * Get the salt of a value encrypted with this cryptor.
+   *
+   * @param encrypted the encrypted value
+   * @return the Base64 encoded salt, <code>null</code> if the value was not
+   *         encrypted with this cryptor
+   */
+  @Nullable
+  public static String getSalt(String encrypted) {
+    if (encrypted == null || !encrypted.startsWith(PREFIX)) {
+      return null;
+    }
+    try {
+      return new Encrypted(encrypted).salt;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public String encrypt(String plain, String password) throws Exception {
+    byte[] iv = new byte[IV_LENGTH];
+    random.nextBytes(iv);
+
+    Keys keys = getKeys(password, salt);
+    byte[] plainBytes = plain.getBytes(StandardCharsets.UTF_8);
+
+    Cipher cipher = ciphers.get();
+    cipher.init(Cipher.ENCRYPT_MODE, keys.encryption, new GCMParameterSpec(TAG_LENGTH, iv));
+    byte[] encrypted = cipher.doFinal(plainBytes);
+
+    ByteBuffer data = ByteBuffer.allocate(iv.length + encrypted.length);
+    data.put(iv);
+    data.put(encrypted);
+
+    Base64.Encoder encoder = Base64.getEncoder();
+    return PREFIX + salt + ":" + encoder.encodeToString(digest(keys, plainBytes)) + ":"
+      + encoder.encodeToString(data.array());
+  }
+
+  @Override
+  public String decrypt(String encrypted, String password) throws Exception {
+    if (!encrypted.startsWith(PREFIX)) {
+      if (fallback != null) {
+        return fallback.decrypt(encrypted, password);
+      }
+      throw new IllegalArgumentException("Value was not encrypted with AES-GCM cryptor");
+    }
+
+    Encrypted value = new Encrypted(encrypted);
+    byte[] data = Base64.getDecoder().decode(value.data);
+    if (data.length < IV_LENGTH) {
+      throw new IllegalArgumentException("Invalid encrypted value, IV is missing");
+    }
+
+    Cipher cipher = ciphers.get();
+    cipher.init(Cipher.DECRYPT_MODE, getKeys(password, value.salt).encryption,
+      new GCMParameterSpec(TAG_LENGTH, data, 0, IV_LENGTH));
+    byte[] decrypted = cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+
+    return new String(decrypted, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Checks the digest of the encrypted value, if present, instead of
+   * decrypting it.
+   */
+  @Override
+  public boolean matches(String plain, String encrypted, String password) {
+    if (!encrypted.startsWith(PREFIX)) {
+      return Cryptor.super.matches(plain, encrypted, password);
+    }
+
+    try {
+      Encrypted value = new Encrypted(encrypted);
+      if (value.digest == null) {
+        return Cryptor.super.matches(plain, encrypted, password);
+      }
+
+      byte[] expected = Base64.getDecoder().decode(value.digest);
+      byte[] actual = digest(getKeys(password, value.salt), plain.getBytes(StandardCharsets.UTF_8));
+      return MessageDigest.isEqual(expected, actual);
+    } catch (IllegalArgumentException e) {
+      // invalid value
+      return false;
+    }
+  }
+
+  private static byte[] digest(Keys keys, byte[] plain) {
+    return hmac(keys.digest, plain);
+  }
+
+  private static byte[] hmac(SecretKey key, byte[] data) {
+    Mac mac = macs.get();
+    try {
+      mac.init(key);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Failed to initialize HMAC", e);
+    }
+    return mac.doFinal(data);
+  }
+
+  /**
+   * Get the keys for a password and salt, derive them only if they were not
+   * derived before.
+   */
+  private static Keys getKeys(String password, String salt) {
+    String id = keyId(password, salt);
+    CompletableFuture<Keys> created = new CompletableFuture<>();
+    CompletableFuture<Keys> future = keys.computeIfAbsent(id, k -> created);
+    if (future == created) {
+      try {
+        created.complete(deriveKeys(password, salt));
+      } catch (RuntimeException e) {
+        keys.remove(id, created);
+        created.completeExceptionally(e);
+      }
+    }
+
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Identifies the keys for a password and salt, without retaining the
+   * password itself.
+   */
+  private static String keyId(String password, String salt) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(salt.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(password.getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().encodeToString(digest.digest());
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("SHA-256 not supported", e);
+    }
+  }
+
+  /**
+   * Clear the derived keys.
+   */
+  public static void clearKeys() {
+    keys.clear();
+  }
+
+  private static Keys deriveKeys(String password, String salt) {
+    PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), Base64.getDecoder().decode(salt), ITERATIONS,
+      KEY_LENGTH);
+    try {
+      byte[] key = SecretKeyFactory.getInstance(KEY_ALGORITHM).generateSecret(spec).getEncoded();
+      try {
+        return new Keys(key);
+      } finally {
+        Arrays.fill(key, (byte) 0);
+      }
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Failed to derive key from password", e);
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+}
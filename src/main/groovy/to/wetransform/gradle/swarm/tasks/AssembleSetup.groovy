@@ -0,0 +1,342 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.tasks
+
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+
+import javax.inject.Inject
+
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.ConfigurableFileCollection
+import org.gradle.api.file.FileCollection
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.model.ObjectFactory
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.TaskAction
+
+import to.wetransform.gradle.swarm.actions.assemble.AssembleDefaultConfig
+import to.wetransform.gradle.swarm.actions.assemble.AssembleRunner
+import to.wetransform.gradle.swarm.actions.assemble.YamlProcessorPipeline
+import to.wetransform.gradle.swarm.actions.assemble.template.PebbleAssembler
+import to.wetransform.gradle.swarm.actions.assemble.template.TemplateAssembler
+import to.wetransform.gradle.swarm.config.ConfigHelper
+import to.wetransform.gradle.swarm.config.VaultFile
+import to.wetransform.gradle.swarm.util.FileAccessRecorder
+import to.wetransform.gradle.swarm.util.Helpers
+
+/**
+ * Task that assembles the compose file for a specific stack and setup.
+ *
+ * All information needed is provided via the task properties, the task does
+ * not access the project or the setup configuration object when it is run.
+ * This allows using the task with the Gradle configuration cache.
+ *
+ * Files that are referenced from the templates or the configuration (e.g. via
+ * the <code>file</code> function or a Groovy script file) are only known after
+ * the task was run. They are recorded in a manifest file that is used to
+ * populate {@link #getReferencedFiles()} for subsequent builds.
+ *
+ * The task is not cacheable: the referenced files are not known before the
+ * first run, the inputs of custom template engines and YAML post-processors
+ * are not tracked, and the assembled file may contain decrypted secrets that
+ * should not end up in a (shared) build cache.
+ *
+ * @author Simon Templer
+ */
+abstract class AssembleSetup extends DefaultTask {
+
+  /**
+   * @return the stack template file
+   */
+  @InputFile
+  @PathSensitive(PathSensitivity.RELATIVE)
+  abstract RegularFileProperty getTemplate()
+
+  /**
+   * @return the configuration files (or configuration maps) in the order
+   *   they should be merged
+   */
+  @Internal
+  abstract ListProperty<Object> getConfigFiles()
+
+  /**
+   * @return the configuration files as file collection, for up-to-date checks
+   */
+  @InputFiles
+  @PathSensitive(PathSensitivity.RELATIVE)
+  FileCollection getConfigFileInputs() {
+    objects.fileCollection().from(configFiles.map { List files ->
+      files.findAll { !(it instanceof Map) }.collect {
+        it instanceof VaultFile ? ((VaultFile) it).file : Helpers.toFile(it)
+      }
+    })
+  }
+
+  /**
+   * With the configuration cache enabled the value is captured when the
+   * configuration cache entry is stored, so configuration added to the setup
+   * during task execution is not included.
+   *
+   * @return configuration added to the setup configuration in addition to
+   *   the configuration files
+   */
+  @Input
+  abstract MapProperty<String, Object> getAdditionalConfig()
+
+  /**
+   * @return files referenced from templates or configuration, as recorded
+   *   in the manifest of a previous run
+   */
+  @InputFiles
+  @PathSensitive(PathSensitivity.RELATIVE)
+  abstract ConfigurableFileCollection getReferencedFiles()
+
+  /**
+   * @return the file to record the files referenced from templates or
+   *   configuration in
+   */
+  @OutputFile
+  @Optional
+  abstract RegularFileProperty getReferencedFilesManifest()
+
+  @Input
+  abstract Property<String> getStackName()
+
+  @Input
+  abstract Property<String> getSetupName()
+
+  /**
+   * @return the directory relative to which the setup configuration is
+   *   evaluated
+   */
+  @Internal
+  abstract Property<File> getConfigRootDir()
+
+  /**
+   * @return the directory relative to which the configuration is evaluated
+   *   for assembling the template
+   */
+  @Internal
+  abstract Property<File> getRootDir()
+
+  /**
+   * @return the directory relative to which the template engine resolves
+   *   files, only applies if no custom template engine is set
+   */
+  @Internal
+  abstract Property<File> getTemplateRootDir()
+
+  /**
+   * @return if YAML post-processors should be applied to the assembled file
+   */
+  @Input
+  abstract Property<Boolean> getPostProcessing()
+
+  /**
+   * @return the target file
+   */
+  @OutputFile
+  abstract RegularFileProperty getTarget()
+
+  /**
+   * @return the file to write the helper script to
+   */
+  @Internal
+  abstract RegularFileProperty getScriptFile()
+
+  /**
+   * @return the content of the helper script, if a script should be created
+   */
+  @Input
+  @Optional
+  abstract Property<String> getScriptContent()
+
+  /**
+   * @return if the helper script is shared with the tasks of other setups,
+   *   in that case it is not declared as output of the task
+   */
+  @Input
+  abstract Property<Boolean> getSharedScript()
+
+  /**
+   * @return the helper script file, if it is an output specific to this task
+   */
+  @OutputFile
+  @Optional
+  File getScriptOutputFile() {
+    (scriptContent.present && !sharedScript.get()) ? scriptFile.get().asFile : null
+  }
+
+  /**
+   * Custom template engine. If not set, a Pebble template engine is used.
+   * Custom template engines are not compatible with the configuration cache.
+   */
+  @Internal
+  TemplateAssembler templateEngine
+
+  /**
+   * YAML post-processors, closures taking the YAML structure, the configuration
+   * and the target file as arguments (the latter being optional) and returning
+   * if any changes were made.
+   */
+  @Internal
+  List<Closure> yamlPostProcessors = []
+
+  /**
+   * For each YAML post-processor, the identifier to cache its results with if
+   * it is pure (i.e. its result only depends on its arguments), otherwise
+   * <code>null</code>.
+   */
+  @Internal
+  List<String> yamlPostProcessorCacheIds = []
+
+  /**
+   * @return identifiers of the YAML post-processor implementations, to detect
+   *   changes to the post-processors
+   */
+  @Input
+  List<String> getYamlPostProcessorImplementations() {
+    yamlPostProcessors.collect { Closure processor ->
+      implementationId(processor.getClass())
+    }
+  }
+
+  @Inject
+  abstract ObjectFactory getObjects()
+
+  AssembleSetup() {
+    postProcessing.convention(true)
+    sharedScript.convention(false)
+
+    // shared helper script is not an output, but should be recreated if missing
+    outputs.upToDateWhen { AssembleSetup task ->
+      !task.scriptContent.present || task.scriptFile.get().asFile.exists()
+    }
+  }
+
+  @TaskAction
+  void assemble() {
+    FileAccessRecorder.Recording recording = FileAccessRecorder.start()
+    try {
+      assembleSetup()
+    } finally {
+      recording.close()
+    }
+
+    // record referenced files for subsequent runs
+    if (referencedFilesManifest.present) {
+      def files = recording.files*.absolutePath.sort()
+      referencedFilesManifest.get().asFile.setText(files.join('\n'), 'UTF-8')
+    }
+  }
+
+  protected void assembleSetup() {
+    File composeFile = target.get().asFile
+
+    // load setup configuration
+    Map config = ConfigHelper.loadConfig(configRootDir.getOrNull(), configFiles.get(),
+      stackName.get(), setupName.get(), additionalConfig.get())
+
+    // run actual assembly of the compose/stack file
+    TemplateAssembler assembler = templateEngine ?: new PebbleAssembler(templateRootDir.getOrNull())
+    def runnerConfig = new AssembleDefaultConfig(
+      template: template.get().asFile,
+      config: [config],
+      target: composeFile)
+    def runner = new AssembleRunner(assembler, rootDir.getOrNull(), logger, runnerConfig)
+
+    if (!yamlPostProcessors.empty && postProcessing.get()) {
+      // assemble to memory and apply YAML post processors before writing the file
+      byte[] rendered = runner.render()
+      boolean written = false
+      Map yaml = (Map) ConfigHelper.parseYaml(new String(rendered, StandardCharsets.UTF_8)) ?: [:]
+
+      def pipeline = new YamlProcessorPipeline(yamlPostProcessors, yamlPostProcessorCacheIds,
+        yamlPostProcessorImplementations)
+      def beforeTargetAccess = { Map current, boolean changed ->
+        // only post-processors accessing the target file require it to be written
+        if (changed) {
+          ConfigHelper.saveYaml(current, composeFile)
+        }
+        else if (!written) {
+          composeFile.bytes = rendered
+        }
+        written = true
+      }
+      def afterTargetAccess = {
+        // post-processor may have changed the file
+        (Map) ConfigHelper.loadYaml(composeFile) ?: [:]
+      }
+      def result = pipeline.process(yaml, YamlProcessorPipeline.hash(rendered), config, composeFile,
+        beforeTargetAccess, afterTargetAccess)
+
+      if (result.changed) {
+        ConfigHelper.saveYaml(result.yaml, composeFile)
+      }
+      else if (!written) {
+        composeFile.bytes = rendered
+      }
+    }
+    else {
+      runner.runCommand()
+    }
+
+    // create helper script
+    if (scriptContent.present) {
+      File file = scriptFile.get().asFile
+      file.text = scriptContent.get()
+      try {
+        [
+          'chmod',
+          'a+x',
+          file.absolutePath
+        ].execute()
+      } catch (e) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Determine an identifier for a class implementation, based on the class
+   * name and the byte code if available.
+   *
+   * @param type the class
+   * @return the identifier
+   */
+  protected static String implementationId(Class<?> type) {
+    String resource = type.name.replace('.', '/') + '.class'
+    InputStream classFile = type.classLoader?.getResourceAsStream(resource)
+    if (classFile == null) {
+      return type.name
+    }
+
+    MessageDigest digest = MessageDigest.getInstance('SHA-256')
+    classFile.withStream { digest.update(it.bytes) }
+    type.name + ':' + digest.digest().encodeHex().toString()
+  }
+}
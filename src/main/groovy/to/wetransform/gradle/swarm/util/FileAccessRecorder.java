@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.util;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * Records files that are accessed by template functions and filters, e.g. to
+ * declare them as inputs of a task.
+ *
+ * A recording is bound to the thread that started it, so evaluations running
+ * at the same time (e.g. tasks of different setups) don't record each other's
+ * file accesses. Code that continues an evaluation on other threads (e.g.
+ * parallel evaluation) has to pass the recording on with
+ * {@link #withRecording(Recording, Supplier)}. Accesses are also reported to
+ * the recordings that were active when a recording was started.
+ *
+ * @author Simon Templer
+ */
+public final class FileAccessRecorder {
+
+  /**
+   * An active recording of file accesses.
+   */
+  public static final class Recording implements AutoCloseable {
+
+    private final Set<File> files = ConcurrentHashMap.newKeySet();
+
+    private final Recording parent;
+
+    private Recording(@Nullable Recording parent) {
+      super();
+      this.parent = parent;
+    }
+
+    /**
+     * @return the files recorded so far
+     */
+    public Set<File> getFiles() {
+      return Collections.unmodifiableSet(files);
+    }
+
+    @Override
+    public void close() {
+      if (CURRENT.get() == this) {
+        if (parent == null) {
+          CURRENT.remove();
+        } else {
+          CURRENT.set(parent);
+        }
+      }
+    }
+
+  }
+
+  private static final ThreadLocal<Recording> CURRENT = new ThreadLocal<>();
+
+  private FileAccessRecorder() {
+    super();
+  }
+
+  /**
+   * Start a new recording for the current thread. The recording should be
+   * closed on the same thread when done.
+   *
+   * @return the recording
+   */
+  public static Recording start() {
+    Recording recording = new Recording(CURRENT.get());
+    CURRENT.set(recording);
+    return recording;
+  }
+
+  /**
+   * @return the recording active for the current thread, <code>null</code> if
+   *         there is none
+   */
+  @Nullable
+  public static Recording current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Run an action with the given recording active for the current thread.
+   *
+   * @param recording the recording, may be <code>null</code>
+   * @param action the action to run
+   * @return the result of the action
+   */
+  public static <T> T withRecording(@Nullable Recording recording, Supplier<T> action) {
+    Recording previous = CURRENT.get();
+    if (previous == recording) {
+      return action.get();
+    }
+
+    CURRENT.set(recording);
+    try {
+      return action.get();
+    } finally {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Notify about a file that was accessed.
+   *
+   * @param file the accessed file
+   */
+  public static void accessed(File file) {
+    Recording recording = CURRENT.get();
+    if (file != null && recording != null) {
+      File absolute = file.getAbsoluteFile();
+      for (; recording != null; recording = recording.parent) {
+        recording.files.add(absolute);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Thread safe cache with a maximum size, that evicts the least recently used
+ * entries. Keeps statistics on hits, misses and evictions.
+ *
+ * Values are computed outside of the lock, so the same value may be computed
+ * concurrently by multiple threads. The value that is stored first is used.
+ *
+ * @author Simon Templer
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class LruCache<K, V> {
+
+  /**
+   * Cache statistics.
+   */
+  public static final class Stats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int size;
+
+    public Stats(long hits, long misses, long evictions, int size) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.size = size;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public long getEvictions() {
+      return evictions;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    /**
+     * @return the ratio of hits to all requests, <code>0</code> if there were
+     *         no requests
+     */
+    public double getHitRate() {
+      long requests = hits + misses;
+      return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /**
+     * Combine with other statistics.
+     *
+     * @param other the other statistics
+     * @return the combined statistics
+     */
+    public Stats plus(Stats other) {
+      return new Stats(hits + other.hits, misses + other.misses, evictions + other.evictions,
+        size + other.size);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d hits, %d misses (hit rate %.1f%%), %d evictions, %d entries", hits, misses,
+        getHitRate() * 100, evictions, size);
+    }
+  }
+
+  private final Map<K, V> entries;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Create a new cache.
+   *
+   * @param maxSize the maximum number of entries
+   */
+  public LruCache(final int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Maximum size must be positive");
+    }
+    entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        if (size() > maxSize) {
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Get the value for a key, if it is not present compute it.
+   *
+   * @param key the key
+   * @param compute the function computing the value for a key
+   * @return the cached or computed value
+   */
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> compute) {
+    V value;
+    synchronized (entries) {
+      value = entries.get(key);
+    }
+    if (value != null) {
+      hits.incrementAndGet();
+      return value;
+    }
+
+    misses.incrementAndGet();
+    V computed = compute.apply(key);
+    if (computed == null) {
+      return null;
+    }
+    synchronized (entries) {
+      value = entries.putIfAbsent(key, computed);
+    }
+    return value != null ? value : computed;
+  }
+
+  /**
+   * Remove the entry for a key, if it is associated to the given value.
+   *
+   * @param key the key
+   * @param value the value expected to be associated to the key
+   * @return if the entry was removed
+   */
+  public boolean remove(K key, V value) {
+    synchronized (entries) {
+      return entries.remove(key, value);
+    }
+  }
+
+  /**
+   * Remove all entries from the cache.
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * @return the number of entries in the cache
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * @return the current cache statistics
+   */
+  public Stats getStats() {
+    return new Stats(hits.get(), misses.get(), evictions.get(), size());
+  }
+
+}
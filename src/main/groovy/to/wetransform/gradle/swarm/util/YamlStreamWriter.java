@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.emitter.Emitter;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.DocumentEndEvent;
+import org.yaml.snakeyaml.events.DocumentStartEvent;
+import org.yaml.snakeyaml.events.ImplicitTuple;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+import org.yaml.snakeyaml.events.StreamEndEvent;
+import org.yaml.snakeyaml.events.StreamStartEvent;
+import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.SequenceNode;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.representer.Representer;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+/**
+ * Writes YAML by emitting events for maps and lists directly while traversing
+ * them, instead of building the complete node graph first like
+ * {@link org.yaml.snakeyaml.Yaml#dump(Object, Writer)} does. The output is
+ * meant to match the output of SnakeYAML for configuration structures (maps,
+ * lists and scalars, including shared maps and lists), which is what the
+ * tests cover. Other objects are represented using the SnakeYAML
+ * {@link Representer}, one value at a time.
+ *
+ * Maps and lists that occur multiple times are written with anchors and
+ * aliases, like SnakeYAML does. To detect them, the whole structure is
+ * traversed before writing and every map and list is recorded in an identity
+ * map. So memory use is not constant, but grows with the number of maps and
+ * lists in the document, which is still much less than the node graph
+ * SnakeYAML builds for all values.
+ *
+ * Instances are not thread safe, but may be reused.
+ *
+ * @author Simon Templer
+ */
+public class YamlStreamWriter {
+
+  private final DumperOptions options;
+
+  private final Representer representer;
+
+  private final Resolver resolver = new Resolver();
+
+  /**
+   * Maps and lists that occur multiple times, with their anchor.
+   */
+  private final Map<Object, String> anchors = new IdentityHashMap<>();
+
+  /**
+   * Anchors already written.
+   */
+  private final Map<Object, Boolean> written = new IdentityHashMap<>();
+
+  private int lastAnchorId;
+
+  /**
+   * Create a writer with the given options.
+   *
+   * @param options the dumper options
+   */
+  public YamlStreamWriter(DumperOptions options) {
+    this.options = options;
+    this.representer = new Representer(options);
+    this.representer.setDefaultFlowStyle(options.getDefaultFlowStyle());
+    this.representer.setDefaultScalarStyle(options.getDefaultScalarStyle());
+  }
+
+  /**
+   * Write an object as YAML document.
+   *
+   * @param object the object to write
+   * @param writer the writer to write to, it is not closed
+   * @throws IOException if writing fails
+   */
+  public void write(Object object, Writer writer) throws IOException {
+    try {
+      collectAnchors(object, new IdentityHashMap<>());
+
+      Emitter emitter = new Emitter(writer, options);
+      emitter.emit(new StreamStartEvent(null, null));
+      emitter.emit(new DocumentStartEvent(null, null, options.isExplicitStart(), options.getVersion(),
+        options.getTags()));
+      emitObject(emitter, object);
+      emitter.emit(new DocumentEndEvent(null, null, options.isExplicitEnd()));
+      emitter.emit(new StreamEndEvent(null, null));
+    } finally {
+      anchors.clear();
+      written.clear();
+      lastAnchorId = 0;
+    }
+  }
+
+  /**
+   * Determine the maps and lists that occur multiple times, in the same order
+   * as SnakeYAML does.
+   */
+  private void collectAnchors(Object object, Map<Object, Boolean> visited) {
+    if (!(object instanceof Map) && !(object instanceof List)) {
+      return;
+    }
+
+    if (visited.containsKey(object)) {
+      if (!anchors.containsKey(object)) {
+        anchors.put(object, String.format("id%03d", ++lastAnchorId));
+      }
+      return;
+    }
+    visited.put(object, Boolean.TRUE);
+
+    if (object instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+        collectAnchors(entry.getKey(), visited);
+        collectAnchors(entry.getValue(), visited);
+      }
+    } else {
+      for (Object item : (List<?>) object) {
+        collectAnchors(item, visited);
+      }
+    }
+  }
+
+  private void emitObject(Emitter emitter, Object object) throws IOException {
+    if (object instanceof Map || object instanceof List) {
+      String anchor = anchors.get(object);
+      if (anchor != null) {
+        if (written.containsKey(object)) {
+          emitter.emit(new AliasEvent(anchor, null, null));
+          return;
+        }
+        written.put(object, Boolean.TRUE);
+      }
+
+      if (object instanceof Map) {
+        emitter.emit(new MappingStartEvent(anchor, Tag.MAP.getValue(), true, null, null,
+          options.getDefaultFlowStyle()));
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+          emitObject(emitter, entry.getKey());
+          emitObject(emitter, entry.getValue());
+        }
+        emitter.emit(new MappingEndEvent(null, null));
+      } else {
+        emitter.emit(new SequenceStartEvent(anchor, Tag.SEQ.getValue(), true, null, null,
+          options.getDefaultFlowStyle()));
+        for (Object item : (List<?>) object) {
+          emitObject(emitter, item);
+        }
+        emitter.emit(new SequenceEndEvent(null, null));
+      }
+    } else {
+      // scalars and other objects
+      emitNode(emitter, representer.represent(object));
+    }
+  }
+
+  private void emitNode(Emitter emitter, Node node) throws IOException {
+    String tag = node.getTag().getValue();
+    switch (node.getNodeId()) {
+      case scalar :
+        ScalarNode scalar = (ScalarNode) node;
+        Tag detectedTag = resolver.resolve(NodeId.scalar, scalar.getValue(), true);
+        Tag defaultTag = resolver.resolve(NodeId.scalar, scalar.getValue(), false);
+        ImplicitTuple implicit = new ImplicitTuple(node.getTag().equals(detectedTag),
+          node.getTag().equals(defaultTag));
+        emitter.emit(new ScalarEvent(null, tag, implicit, scalar.getValue(), null, null, scalar.getScalarStyle()));
+        break;
+      case sequence :
+        SequenceNode sequence = (SequenceNode) node;
+        boolean implicitSequence = node.getTag().equals(resolver.resolve(NodeId.sequence, null, true));
+        emitter.emit(new SequenceStartEvent(null, tag, implicitSequence, null, null, sequence.getFlowStyle()));
+        for (Node item : sequence.getValue()) {
+          emitNode(emitter, item);
+        }
+        emitter.emit(new SequenceEndEvent(null, null));
+        break;
+      default :
+        MappingNode mapping = (MappingNode) node;
+        boolean implicitMapping = node.getTag().equals(resolver.resolve(NodeId.mapping, null, true));
+        emitter.emit(new MappingStartEvent(null, tag, implicitMapping, null, null, mapping.getFlowStyle()));
+        for (NodeTuple tuple : mapping.getValue()) {
+          emitNode(emitter, tuple.getKeyNode());
+          emitNode(emitter, tuple.getValueNode());
+        }
+        emitter.emit(new MappingEndEvent(null, null));
+    }
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.actions.assemble
+
+import static org.junit.Assert.*
+
+import org.junit.After
+import org.junit.Test
+
+/**
+ * Tests for YamlProcessorPipeline class.
+ *
+ * @author Simon Templer
+ */
+class YamlProcessorPipelineTest {
+
+  @After
+  void cleanup() {
+    YamlProcessorPipeline.clearCache()
+  }
+
+  @Test
+  void testProcessors() {
+    def pipeline = new YamlProcessorPipeline([
+      { Map yaml -> yaml.first = true },
+      { Map yaml, Map config -> yaml.name = config.name; true },
+      { Map yaml, Map config, File target -> false }
+    ], [], ['first', 'second', 'third'])
+
+    def result = pipeline.process([:], null, [name: 'test'], null)
+    assertTrue(result.changed)
+    assertEquals([first: true, name: 'test'], result.yaml)
+
+    result = new YamlProcessorPipeline([{ Map yaml -> false }], [], ['none']).process([a: 1], null, [:], null)
+    assertFalse(result.changed)
+    assertEquals([a: 1], result.yaml)
+  }
+
+  @Test
+  void testPureCached() {
+    int calls = 0
+    def processor = { Map yaml ->
+      calls++
+      yaml.services.each { name, service -> service.restart = 'always' }
+      true
+    }
+
+    2.times {
+      def pipeline = new YamlProcessorPipeline([processor], ['restart'], ['impl'])
+      def result = pipeline.process([services: [web: [image: 'nginx']]], null, [:], null)
+      assertTrue(result.changed)
+      assertEquals([services: [web: [image: 'nginx', restart: 'always']]], result.yaml)
+
+      // changing the result must not affect the cache
+      result.yaml.services.web.image = 'changed'
+    }
+    assertEquals(1, calls)
+
+    // different input is not taken from the cache
+    new YamlProcessorPipeline([processor], ['restart'], ['impl']).process([services: [:]], null, [:], null)
+    assertEquals(2, calls)
+
+    // without cache identifier results are not cached
+    new YamlProcessorPipeline([processor], [null], ['impl']).process([services: [:]], null, [:], null)
+    assertEquals(3, calls)
+  }
+
+  @Test
+  void testCapturedValues() {
+    // closures from the same location share their class, but not their results
+    def processors = ['web', 'db'].collect { String name ->
+      { Map yaml -> yaml.services.remove(name); true }
+    }
+    assertEquals(processors[0].getClass(), processors[1].getClass())
+
+    def remaining = processors.collect { Closure processor ->
+      def services = [services: [web: [image: 'nginx'], db: [image: 'postgres']]]
+      def result = new YamlProcessorPipeline([processor], [null], ['impl']).process(services, null, [:], null)
+      result.yaml.services.keySet()
+    }
+    assertEquals([['db'] as Set, ['web'] as Set], remaining)
+  }
+
+  @Test
+  void testHashOfSource() {
+    int calls = 0
+    def processor = { Map yaml -> calls++; yaml.a = 2; true }
+    byte[] source = 'a: 1\n'.bytes
+
+    2.times {
+      def result = new YamlProcessorPipeline([processor], ['set-a'], ['impl']).process([a: 1],
+        YamlProcessorPipeline.hash(source), [:], null)
+      assertEquals([a: 2], result.yaml)
+    }
+    assertEquals(1, calls)
+  }
+
+  @Test
+  void testTargetAccess() {
+    def states = []
+    def pipeline = new YamlProcessorPipeline([
+      { Map yaml -> yaml.a = 1 },
+      { Map yaml, Map config, File target -> false },
+      { Map yaml -> yaml.c = 3; true }
+    ], [], ['first', 'second', 'third'])
+
+    def result = pipeline.process([:], null, [:], null, { Map yaml, boolean changed ->
+      states << [new LinkedHashMap(yaml), changed]
+    }, {
+      // file was changed by the post-processor
+      [a: 1, b: 2]
+    })
+    assertEquals([[[a: 1], true]], states)
+    assertTrue(result.changed)
+    assertEquals([a: 1, b: 2, c: 3], result.yaml)
+  }
+}
@@ -559,4 +559,149 @@ class PebbleAssemblerTest {
       tmpFolder.deleteDir()
     }
   }
+
+  @Test
+  void testApplyGroovyScriptFileChanged() {
+    def assembler =  new PebbleAssembler()
+
+    def tmpFolder = Files.createTempDirectory('templates').toFile()
+    def tmpMain = new File(tmpFolder, 'main.tmp')
+    def tmpScript = new File(tmpFolder, 'script.groovy')
+    try {
+      tmpMain.text = '''
+      |{{ number | apply(script='./script') }}
+      '''.stripMargin().trim()
+
+      def context = [
+        number: 21
+      ]
+
+      ConfigEvaluator evaluator = new PebbleCachingEvaluator()
+      context = evaluator.evaluate(context)
+
+      def render = {
+        def out = new ByteArrayOutputStream()
+        assembler.compile(tmpMain, context) { out }
+        out.toString().trim()
+      }
+
+      tmpScript.text = 'it * 2'
+      assert render() == '42'
+      assert render() == '42'
+
+      // changed script is compiled again
+      tmpScript.text = 'it * 3'
+      tmpScript.setLastModified(tmpScript.lastModified() + 2000)
+      assert render() == '63'
+    } finally {
+      tmpFolder.deleteDir()
+    }
+  }
+
+  @Test
+  void testApplyStaticGroovyScript() {
+    def assembler =  new PebbleAssembler()
+
+    def tmpFolder = Files.createTempDirectory('templates').toFile()
+    def tmpMain = new File(tmpFolder, 'main.tmp')
+    def tmpScript = new File(tmpFolder, 'calc.static.groovy')
+    try {
+      tmpMain.text = '''
+      |{{ number | apply(script='./calc.static.groovy') }} {{ number | apply(code='it + 1') }}
+      '''.stripMargin().trim()
+
+      tmpScript.text = '''
+      |int value = (int) binding.getVariable('it')
+      |value * 2
+      '''.stripMargin().trim()
+
+      def context = [
+        number: 21
+      ]
+
+      ConfigEvaluator evaluator = new PebbleCachingEvaluator()
+      context = evaluator.evaluate(context)
+
+      def out = new ByteArrayOutputStream()
+      assembler.compile(tmpMain, context) { out }
+
+      assert out.toString().trim() == '42 22'
+    } finally {
+      tmpFolder.deleteDir()
+    }
+  }
+
+  @Test
+  void testFilterMapKeepsOrder() {
+    def assembler =  new PebbleAssembler()
+
+    def tmpFile = Files.createTempFile('template', '.tmp').toFile()
+    try {
+      tmpFile.text = '''
+      |{% for entry in items | filter('it.value.index is odd and it.value.index > min') %}
+      |{{ entry.key }}
+      |{% endfor %}
+      '''.stripMargin().trim()
+
+      def items = [:]
+      (1000..1).each { int index ->
+        items["item$index".toString()] = [index: index]
+      }
+      def context = [
+        items: items,
+        min: 990
+      ]
+
+      ConfigEvaluator evaluator = new PebbleCachingEvaluator()
+      context = evaluator.evaluate(context)
+
+      def out = new ByteArrayOutputStream()
+
+      assembler.compile(tmpFile, context) { out }
+
+      def result = out.toString()
+
+      def list = result.split(/\n/).collect{ it.trim() }.findAll()
+
+      assert list == ['item999', 'item997', 'item995', 'item993', 'item991']
+    } finally {
+      tmpFile.delete()
+    }
+  }
+
+  @Test
+  void testFilterParallel() {
+    def assembler =  new PebbleAssembler()
+
+    def tmpFile = Files.createTempFile('template', '.tmp').toFile()
+    try {
+      tmpFile.text = '''
+      |{% for item in items | filter('it.index % 500 == 0', parallel=true) %}
+      |{{ item.index }}
+      |{% endfor %}
+      |{{ (items | findFirst('it.index > limit', parallel=true)).index }}
+      |{{ items | anyMatch('it.index == 1999', parallel=true) }}
+      '''.stripMargin().trim()
+
+      def context = [
+        items: (0..<2000).collect { [index: it] },
+        limit: 1234
+      ]
+
+      ConfigEvaluator evaluator = new PebbleCachingEvaluator()
+      context = evaluator.evaluate(context)
+
+      def out = new ByteArrayOutputStream()
+
+      assembler.compile(tmpFile, context) { out }
+
+      def result = out.toString()
+
+      def list = result.split(/\n/).collect{ it.trim() }.findAll()
+
+      assert list == ['0', '500', '1000', '1500', '1235', 'true']
+    } finally {
+      tmpFile.delete()
+    }
+  }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config
+
+import static org.junit.Assert.*
+
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.yaml.snakeyaml.DumperOptions
+import org.yaml.snakeyaml.Yaml
+
+import to.wetransform.gradle.swarm.crypt.SimpleConfigCryptor
+import to.wetransform.gradle.swarm.crypt.gcm.GcmCryptor
+
+/**
+ * Tests for ConfigHelper class.
+ *
+ * @author Simon Templer
+ */
+class ConfigHelperTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder()
+
+  @After
+  void cleanup() {
+    ConfigHelper.clearCache()
+  }
+
+  @Test
+  void testParsedOnce() {
+    File file = folder.newFile('config.yml')
+    file.text = '''shared:
+  value: 1
+  list:
+    - a
+'''
+
+    def first = ConfigHelper.loadConfig(null, [file], 'stack1', 'setup1', null, false)
+    def second = ConfigHelper.loadConfig(null, [file], 'stack2', 'setup2', null, false)
+
+    assertEquals(1, first.shared.value)
+    assertEquals('stack1', first.stack)
+    assertEquals('stack2', second.stack)
+
+    // nested configuration is shared
+    assertTrue(first.shared.is(second.shared))
+  }
+
+  @Test
+  void testImmutable() {
+    File file = folder.newFile('config.yml')
+    file.text = '''shared:
+  value: 1
+  list:
+    - a
+'''
+
+    def config = ConfigHelper.loadConfig(null, [file], null, null, null, false)
+
+    try {
+      config.shared.value = 2
+      fail('Cached configuration should not be modifiable')
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    try {
+      config.shared.list << 'b'
+      fail('Cached configuration should not be modifiable')
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  void testFileChanged() {
+    File file = folder.newFile('config.env')
+    file.text = 'VALUE=1\n'
+
+    def first = ConfigHelper.loadConfig(null, [file], null, null, null, false)
+    assertEquals('1', first.env.VALUE)
+
+    file.text = 'VALUE=12\n'
+
+    def second = ConfigHelper.loadConfig(null, [file], null, null, null, false)
+    assertEquals('12', second.env.VALUE)
+  }
+
+  @Test
+  void testFileChangedSameSize() {
+    File file = folder.newFile('config.env')
+    file.text = 'VALUE=1\n'
+    long lastModified = file.lastModified()
+
+    def first = ConfigHelper.loadConfig(null, [file], null, null, null, false)
+    assertEquals('1', first.env.VALUE)
+
+    // same length and modification time
+    file.text = 'VALUE=2\n'
+    file.setLastModified(lastModified)
+
+    def second = ConfigHelper.loadConfig(null, [file], null, null, null, false)
+    assertEquals('2', second.env.VALUE)
+  }
+
+  @Test
+  void testLoadVault() {
+    def plain = [database: [user: 'admin', password: 'secret'], port: 5432]
+    def encrypted = new SimpleConfigCryptor(new GcmCryptor()).encrypt(
+      [database: new LinkedHashMap(plain.database), port: 5432], 'vaultpw', null)
+    assertTrue(encrypted.database.password.startsWith(GcmCryptor.PREFIX))
+
+    File file = folder.newFile('config.vault.yml')
+    ConfigHelper.saveYaml(encrypted, file)
+
+    def config = ConfigHelper.loadConfig(null, [new VaultFile(file, 'vaultpw')], null, null, null, false)
+    assertEquals('admin', config.database.user)
+    assertEquals('secret', config.database.password)
+    assertEquals(5432, config.port)
+
+    // password is not exposed
+    assertFalse(new VaultFile(file, 'vaultpw').toString().contains('vaultpw'))
+
+    // a different password is not served from the cache
+    try {
+      ConfigHelper.loadConfig(null, [new VaultFile(file, 'otherpw')], null, null, null, false)
+      fail('Decryption with wrong password should fail')
+    } catch (Exception e) {
+      // expected
+    }
+  }
+
+  @Test
+  void testToYaml() {
+    def service = [
+      image: 'nginx:latest',
+      ports: ['80:80', '443:443'],
+      environment: [VIRTUAL_HOST: 'example.com', LETSENCRYPT: true],
+      deploy: [replicas: 2, resources: [limits: [memory: '512M']]]
+    ]
+
+    // same output as a newly created Yaml instance
+    DumperOptions options = new DumperOptions()
+    options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK)
+    assertEquals(new Yaml(options).dump(service), ConfigHelper.toYaml(service))
+
+    assertEquals(service, ConfigHelper.parseYaml(ConfigHelper.toYaml(service)))
+  }
+
+  @Test
+  void testYamlConcurrentUse() {
+    def errors = Collections.synchronizedList([])
+    def threads = (1..4).collect { int t ->
+      Thread.start {
+        try {
+          500.times { int i ->
+            def object = [thread: t, index: i, list: [i, t]]
+            assert ConfigHelper.parseYaml(ConfigHelper.toYaml(object)) == object
+          }
+        } catch (Throwable e) {
+          errors << e
+        }
+      }
+    }
+    threads*.join()
+    assertTrue(errors.toString(), errors.isEmpty())
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config
+
+import static org.junit.Assert.*
+
+import org.junit.Test
+
+/**
+ * Tests for PersistentMap class.
+ *
+ * @author Simon Templer
+ */
+class PersistentMapTest {
+
+  /**
+   * Key with a fixed hash code, to force hash collisions.
+   */
+  private static class CollidingKey {
+    final String name
+
+    CollidingKey(String name) {
+      this.name = name
+    }
+
+    @Override
+    int hashCode() {
+      42
+    }
+
+    @Override
+    boolean equals(Object obj) {
+      obj instanceof CollidingKey && obj.name == name
+    }
+  }
+
+  @Test
+  void testInsertionOrder() {
+    PersistentMap map = PersistentMap.empty()
+    def keys = (1..100).collect { "key$it".toString() }.reverse()
+    keys.each {
+      map = map.plus(it, it.length())
+    }
+
+    // replacing a value does not change the order
+    map = map.plus(keys[10], 'replaced')
+
+    assertEquals(keys, map.keySet().toList())
+    assertEquals('replaced', map[keys[10]])
+    assertEquals(100, map.size())
+  }
+
+  @Test
+  void testPersistence() {
+    PersistentMap base = PersistentMap.from([a: 1, b: 2])
+    PersistentMap changed = base.plus('b', 3).plus('c', 4)
+
+    assertEquals([a: 1, b: 2], base)
+    assertEquals([a: 1, b: 3, c: 4], changed)
+    assertTrue(base.is(base.plus('a', 1)))
+  }
+
+  @Test
+  void testLargeMap() {
+    Map<Integer, Integer> expected = new LinkedHashMap<>()
+    PersistentMap map = PersistentMap.empty()
+    Random random = new Random(1)
+    10000.times {
+      int key = random.nextInt(5000)
+      expected[key] = it
+      map = map.plus(key, it)
+    }
+
+    assertEquals(expected, map)
+    assertEquals(expected.keySet().toList(), map.keySet().toList())
+  }
+
+  @Test
+  void testCollisions() {
+    def a = new CollidingKey('a')
+    def b = new CollidingKey('b')
+    def c = new CollidingKey('c')
+
+    PersistentMap map = PersistentMap.empty().plus(a, 1).plus(b, 2).plus('x', 0).plus(c, 3).plus(b, 4)
+
+    assertEquals(4, map.size())
+    assertEquals(1, map[a])
+    assertEquals(4, map[b])
+    assertEquals(3, map[c])
+    assertFalse(map.containsKey(new CollidingKey('d')))
+  }
+
+  @Test
+  void testNullValues() {
+    PersistentMap map = PersistentMap.empty().plus('a', null)
+
+    assertTrue(map.containsKey('a'))
+    assertNull(map['a'])
+    assertFalse(map.containsKey('b'))
+  }
+
+  @Test(expected = UnsupportedOperationException)
+  void testImmutable() {
+    PersistentMap.empty().put('a', 1)
+  }
+
+  @Test
+  void testMergeSharesStructure() {
+    def large = ConfigHelper.toImmutable([
+      shared: (1..1000).collectEntries { ["key$it", it] },
+      other: [value: 1]
+    ])
+
+    def merged = ConfigHelper.mergeConfigs([large, [other: [value: 2]]])
+
+    assertEquals(2, merged.other.value)
+    assertEquals(1, large.other.value)
+    assertTrue(merged.shared.is(large.shared))
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config
+
+import static org.junit.Assert.*
+
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+/**
+ * Tests for SettingsIndex class.
+ *
+ * @author Simon Templer
+ */
+class SettingsIndexTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder()
+
+  private File setupsDir
+
+  @Before
+  void prepare() {
+    setupsDir = folder.newFolder('setups')
+  }
+
+  private void setup(String name, String extend = null) {
+    File dir = new File(setupsDir, name)
+    dir.mkdirs()
+    if (extend != null) {
+      new File(dir, SettingsIndex.SETTINGS_FILE).text = "extends: $extend\n"
+    }
+  }
+
+  @Test
+  void testExtendsOrder() {
+    setup('main', '[a, b]')
+    setup('a')
+    setup('b', '[c, d]')
+    setup('c')
+    setup('d')
+
+    def index = new SettingsIndex()
+    assertEquals(['c', 'd', 'a', 'b'], index.getExtended(setupsDir, 'main'))
+    assertEquals(['c', 'd'], index.getExtended(setupsDir, 'b'))
+    assertEquals([], index.getExtended(setupsDir, 'a'))
+  }
+
+  @Test
+  void testSharedAncestor() {
+    setup('main', '[a, b]')
+    setup('a', '[base]')
+    setup('b', '[base]')
+    setup('base')
+
+    def index = new SettingsIndex()
+    assertEquals(['base', 'a', 'b'], index.getExtended(setupsDir, 'main'))
+  }
+
+  @Test
+  void testSingleExtend() {
+    setup('main', 'base')
+    setup('base')
+
+    def index = new SettingsIndex()
+    assertEquals(['base'], index.getExtended(setupsDir, 'main'))
+  }
+
+  @Test
+  void testCycle() {
+    setup('main', '[a]')
+    setup('a', '[b]')
+    setup('b', '[a]')
+
+    def index = new SettingsIndex()
+    try {
+      index.getExtended(setupsDir, 'main')
+      fail('Cycle should be detected')
+    } catch (IllegalStateException e) {
+      assertTrue(e.message.contains('a -> b -> a'))
+    }
+  }
+
+  @Test
+  void testSettingsLoadedOnce() {
+    setup('main', '[a]')
+    setup('a')
+
+    def index = new SettingsIndex()
+    def settings = index.getSettings(new File(setupsDir, 'main'))
+    assertEquals(['a'], settings['extends'])
+    assertTrue(settings.is(index.getSettings(new File(setupsDir, 'main'))))
+    assertTrue(index.getSettings(new File(setupsDir, 'a')).isEmpty())
+  }
+}
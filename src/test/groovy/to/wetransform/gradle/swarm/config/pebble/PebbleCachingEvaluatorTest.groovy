@@ -611,4 +611,176 @@ class PebbleCachingEvaluatorTest extends ConfigEvaluatorTest<PebbleCachingEvalua
 
     assert evaluated == expected
   }
+
+  @Test
+  void testLiterals() {
+    def config = [
+      image: 'nginx:1.25',
+      json: '{ "port": 80 }',
+      brace: 'a{b}',
+      flag: 'true',
+      value: '{{ image }}'
+    ]
+
+    def evaluated = eval.evaluate(config)
+
+    def expected = [
+      image: 'nginx:1.25',
+      json: '{ "port": 80 }',
+      brace: 'a{b}',
+      flag: true,
+      value: 'nginx:1.25'
+    ]
+
+    assert evaluated == expected
+
+    assert AbstractPebbleEvaluator.isLiteral('{ "port": 80 }')
+    assert !AbstractPebbleEvaluator.isLiteral('Hello {{ name }}')
+    assert !AbstractPebbleEvaluator.isLiteral('{% if true %}x{% endif %}')
+    assert !AbstractPebbleEvaluator.isLiteral('{# comment #}')
+  }
+
+  @Test
+  void testExpressionCacheShared() {
+    def config = [
+      name: 'World',
+      value: 'Hello {{ name }} from testExpressionCacheShared'
+    ]
+
+    assert eval.evaluate(config).value == 'Hello World from testExpressionCacheShared'
+
+    long hits = AbstractPebbleEvaluator.expressionCacheStats.hits
+
+    // evaluator with the same settings uses the same compiled expressions
+    assert createEvaluator().evaluate(config).value == 'Hello World from testExpressionCacheShared'
+    assert AbstractPebbleEvaluator.expressionCacheStats.hits > hits
+  }
+
+  @Test
+  void testValueLoopNested() {
+    def config = [
+      object: [
+        foo: '{{ _.bar }}',
+        bar: '{{ _.foo }}'
+      ]
+    ]
+
+    try {
+      def evaluated = eval.evaluate(config)
+      evaluated.object.foo
+      assert false : 'Evaluation loop should be detected'
+    } catch (IllegalStateException e) {
+      assert e.message.contains('object')
+    }
+  }
+
+  @Test
+  void testValueLoopParallelPredicate() {
+    def config = [
+      items: [1, 2, 3],
+      foo: "{{ items | filter('foo is not null', parallel=true) | length }}"
+    ]
+
+    try {
+      def evaluated = eval.evaluate(config)
+      evaluated.foo
+      assert false : 'Evaluation loop should be detected'
+    } catch (Exception e) {
+      Throwable cause = e
+      while (cause != null && !(cause instanceof IllegalStateException && cause.message.contains('loop'))) {
+        cause = cause.cause
+      }
+      assert cause != null : 'Evaluation loop should be reported'
+    }
+  }
+
+  @Test
+  void testConcurrentAccess() {
+    def config = [name: 'World']
+    100.times { int i ->
+      config["map$i".toString()] = [
+        value: "Hello {{ name }} $i".toString(),
+        copy: "{{ map${i}.value }}".toString()
+      ]
+    }
+
+    def evaluated = eval.evaluate(config)
+
+    def errors = Collections.synchronizedList([])
+    def threads = (1..4).collect {
+      Thread.start {
+        try {
+          100.times { int i ->
+            assert evaluated["map$i".toString()].copy == "Hello World $i".toString()
+          }
+        } catch (Throwable e) {
+          errors << e
+        }
+      }
+    }
+    threads*.join()
+    assert errors.isEmpty()
+
+    100.times { int i ->
+      assert evaluated["map$i".toString()].copy == "Hello World $i".toString()
+    }
+  }
+
+  @Test
+  void testScopeReused() {
+    def config = [
+      shared: [nested: [name: 'World']],
+      node: [
+        greeting: 'Hello',
+        first: '{{ greeting }} {{ shared.nested.name }}',
+        second: '{{ _.first }}!',
+        third: '{{ shared.nested.name }} {{ node.first }}',
+        missing: '{{ shared.nested.other }}'
+      ]
+    ]
+
+    def evaluated = eval.evaluate(config)
+
+    assert evaluated.node.first == 'Hello World'
+    assert evaluated.node.second == 'Hello World!'
+    assert evaluated.node.third == 'World Hello World'
+
+    // missing attributes are still reported when wrappers are reused
+    2.times {
+      try {
+        evaluated.node.missing
+        assert false : 'Missing attribute should be reported'
+      } catch (PebbleException e) {
+        assert e.message.contains('shared.nested.other')
+      }
+    }
+  }
+
+  @Test
+  void testExpandNested() {
+    def config = [
+      name: 'Jim',
+      settings: [
+        enabled: true,
+        ratio: 1.5,
+        greeting: 'Hello {{ name }}'
+      ],
+      copy: '{{ settings | expand }}',
+      // evaluation of copy is triggered while evaluating this value
+      copyOfCopy: '{{ copy | expand }}'
+    ]
+
+    def evaluated = eval.evaluate(config)
+
+    def expected = [
+      enabled: true,
+      ratio: 1.5,
+      greeting: 'Hello Jim'
+    ]
+
+    assert evaluated.copyOfCopy == expected
+    assert evaluated.copy == expected
+    assert evaluated.copy.ratio instanceof BigDecimal
+    assert evaluated.copy.enabled instanceof Boolean
+  }
 }
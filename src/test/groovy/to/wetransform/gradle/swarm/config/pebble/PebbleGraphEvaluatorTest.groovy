@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config.pebble
+
+import static org.junit.Assert.*
+
+import org.junit.Test
+
+import io.pebbletemplates.pebble.error.AttributeNotFoundException
+
+/**
+ * Test for PebbleGraphEvaluator. Runs all tests of PebbleCachingEvaluator.
+ *
+ * @author Simon Templer
+ */
+class PebbleGraphEvaluatorTest extends PebbleCachingEvaluatorTest {
+
+  @Override
+  protected PebbleGraphEvaluator createEvaluator() {
+    return new PebbleGraphEvaluator()
+  }
+
+  @Test
+  void testLoopsDeferred() {
+    def config = [
+      foo: '{{ bar }}',
+      bar: '{{ foo }}',
+      object: [
+        a: '{{ object.b }}',
+        b: '{{ _.a }}'
+      ],
+      other: '{{ other }}',
+      ok: 'Test'
+    ]
+
+    // loops are only reported if the values are accessed
+    def evaluated = eval.evaluate(config)
+    assertEquals('Test', evaluated.ok)
+
+    try {
+      evaluated.foo
+      fail('Evaluation loop should be detected')
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  void testConditionalLoopNotTaken() {
+    def config = [
+      flag: true,
+      a: "{{ flag ? 'x' : b }}",
+      b: '{{ a }}'
+    ]
+
+    def evaluated = eval.evaluate(config)
+
+    assertEquals('x', evaluated.a)
+    assertEquals('x', evaluated.b)
+  }
+
+  @Test
+  void testConditionalDependencies() {
+    def visitor = eval.collectDependencies('{{ flag ? a : b }}{% if c %}{{ d }}{% elseif e %}{{ a }}{% else %}{{ f }}{% endif %}')
+
+    assertEquals([['flag'], ['a'], ['b'], ['c'], ['d'], ['e'], ['f']] as Set, visitor.dependencies as Set)
+    assertEquals([['a'], ['b'], ['d'], ['e'], ['f']] as Set, visitor.conditionalDependencies as Set)
+  }
+
+  @Test
+  void testDeepReferenceChain() {
+    int length = 5000
+    def config = [:]
+    // add in reverse order, so the values referenced last are visited first
+    for (int i = length - 1; i > 0; i--) {
+      config["value$i".toString()] = "{{ value${i - 1} }}".toString()
+    }
+    config.value0 = 'Test'
+
+    def evaluated = eval.evaluate(config)
+
+    assert evaluated["value${length - 1}".toString()] == 'Test'
+  }
+
+  @Test
+  void testReferenceContainingMap() {
+    // references to a map containing the value are no evaluation loop
+    def config = [
+      map: [
+        a: 'A',
+        b: '{{ map is null ? "none" : map.a }}',
+        c: '{{ map is null ? "none" : map.b }}'
+      ]
+    ]
+
+    def evaluated = eval.evaluate(config)
+
+    assert evaluated.map.b == 'A'
+    assert evaluated.map.c == 'A'
+  }
+
+  @Test(expected = AttributeNotFoundException)
+  void testErrorDeferred() {
+    def config = [
+      hello: 'Hello {{ name }}',
+      other: 'Test'
+    ]
+
+    def evaluated = eval.evaluate(config)
+
+    assert evaluated.other == 'Test'
+
+    evaluated.hello
+  }
+
+  @Test
+  void testFilterDependencies() {
+    def dependencies = eval.getDependencies('{{ foo | default(bar.name) }}{{ baz is divisibleby(num) ? a : b }}')
+
+    assertEquals([['foo'], ['bar', 'name'], ['baz'], ['num'], ['a'], ['b']] as Set, dependencies as Set)
+  }
+}
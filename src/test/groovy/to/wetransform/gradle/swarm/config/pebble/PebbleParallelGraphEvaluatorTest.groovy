@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.config.pebble
+
+import static org.junit.Assert.*
+
+import org.junit.Test
+
+import io.pebbletemplates.pebble.error.AttributeNotFoundException
+
+/**
+ * Test for PebbleGraphEvaluator with parallel evaluation enabled.
+ * Runs all tests of PebbleGraphEvaluator.
+ *
+ * @author Simon Templer
+ */
+class PebbleParallelGraphEvaluatorTest extends PebbleGraphEvaluatorTest {
+
+  @Override
+  protected PebbleGraphEvaluator createEvaluator() {
+    def evaluator = new PebbleGraphEvaluator()
+    evaluator.parallel = true
+    return evaluator
+  }
+
+  private Map createConfig(int count) {
+    def config = [base: 'Value']
+    count.times { int i ->
+      config["group$i".toString()] = [
+        name: "{{ base }} $i".toString(),
+        upper: "{{ group${i}.name | upper }}".toString(),
+        list: ["{{ _.name }}".toString(), "{{ group${i}.upper }}".toString()]
+      ]
+    }
+    config
+  }
+
+  @Test
+  void testSameResult() {
+    def config = createConfig(500)
+
+    def expected = new LinkedHashMap(new PebbleCachingEvaluator().evaluate(config))
+    def evaluated = eval.evaluate(config)
+
+    assert evaluated == expected
+    assert evaluated.group42.list == ['Value 42', 'VALUE 42']
+  }
+
+  @Test
+  void testErrorsDeferred() {
+    def config = createConfig(100)
+    config.group10.name = '{{ missing }}'
+    config.group20.name = '{{ missing2 }}'
+
+    def evaluated = eval.evaluate(config)
+
+    assert evaluated.group11.upper == 'VALUE 11'
+
+    try {
+      evaluated.group20.name
+      fail('Evaluation should fail')
+    } catch (AttributeNotFoundException e) {
+      assertTrue(e.message.contains('missing2'))
+    }
+  }
+}
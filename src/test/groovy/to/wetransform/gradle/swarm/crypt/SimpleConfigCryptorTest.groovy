@@ -62,4 +62,107 @@ ipsum - or what?'''
 
     assert encrypted != decrypted
   }
+
+  @Test
+  void testEncryptDecryptParallel() {
+    def batches = Collections.synchronizedList([])
+    Cryptor reverse = new Cryptor() {
+        String encrypt(String plain, String password) {
+          plain.reverse()
+        }
+
+        String decrypt(String encrypted, String password) {
+          encrypted.reverse()
+        }
+
+        List<String> encryptAll(List<String> plain, String password) {
+          batches << plain.size()
+          plain.collect { encrypt(it, password) }
+        }
+      }
+    SimpleConfigCryptor c = new SimpleConfigCryptor(reverse, 4)
+
+    def plain = (1..200).collectEntries { i ->
+      ["group$i".toString(), [name: "name$i".toString(), value: "value$i".toString(), number: i]]
+    }
+    def copy = new JsonSlurper().parseText(JsonOutput.toJson(plain))
+
+    def encrypted = c.encrypt(copy, 'password', null)
+    assert encrypted.group1.name == '1eman'
+    assert encrypted.group200.value == '002eulav'
+    assert encrypted.group200.number != 200
+    assert encrypted.keySet() as List == plain.keySet() as List
+
+    // values were encrypted in batches
+    assert batches.size() > 1
+    assert batches.sum() == 600
+
+    assert plain == c.decrypt(encrypted, 'password')
+  }
+
+  @Test
+  void testReuseReference() {
+    Cryptor cryptor = new Cryptor() {
+        String encrypt(String plain, String password) {
+          'new:' + plain
+        }
+
+        String decrypt(String encrypted, String password) {
+          throw new IllegalStateException('Reference should not be decrypted')
+        }
+
+        boolean matches(String plain, String encrypted, String password) {
+          encrypted.endsWith(':' + plain)
+        }
+      }
+    SimpleConfigCryptor c = new SimpleConfigCryptor(cryptor)
+
+    def reference = [a: 'old:1', more: [b: 'old:2', c: 'old:3']]
+    def encrypted = c.encrypt([a: '1', more: [b: '2', c: 'changed'], d: '4'], 'password', reference)
+
+    assert encrypted == [a: 'old:1', more: [b: 'old:2', c: 'new:changed'], d: 'new:4']
+  }
+
+  @Test
+  void testEncryptDecryptTyped() {
+    int calls = 0
+    Cryptor reverse = new Cryptor() {
+        String encrypt(String plain, String password) {
+          calls++
+          plain.reverse()
+        }
+
+        String decrypt(String encrypted, String password) {
+          encrypted.reverse()
+        }
+      }
+    SimpleConfigCryptor c = new SimpleConfigCryptor(reverse)
+
+    def plain = [
+      hosts: ['a.example.com', 'b.example.com'],
+      users: [[name: 'admin', id: 1], [name: 'guest', id: 2]],
+      more: [
+        port: 8080,
+        large: 10000000000L,
+        ratio: 0.5d,
+        enabled: true,
+        name: 'name'
+      ]
+    ]
+    def copy = new JsonSlurper().parseText(JsonOutput.toJson(plain))
+
+    def encrypted = c.encrypt(copy, 'password', null)
+    // each list and scalar is encrypted as a single value
+    assert calls == 7
+    assert encrypted.hosts instanceof String
+    assert encrypted.more.port instanceof String
+    assert encrypted.more.enabled instanceof String
+
+    def decrypted = c.decrypt(encrypted, 'password')
+    assert plain == decrypted
+    assert decrypted.more.port instanceof Integer
+    assert decrypted.more.large instanceof Long
+    assert decrypted.more.ratio instanceof Double
+    assert decrypted.more.enabled instanceof Boolean
+  }
 }
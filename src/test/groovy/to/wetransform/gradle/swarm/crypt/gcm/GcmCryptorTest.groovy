@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.crypt.gcm
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+import javax.crypto.Cipher
+import javax.crypto.SecretKeyFactory
+import javax.crypto.spec.GCMParameterSpec
+import javax.crypto.spec.PBEKeySpec
+import javax.crypto.spec.SecretKeySpec
+
+import org.junit.Test
+
+import to.wetransform.gradle.swarm.crypt.Cryptor
+
+/**
+ * Tests for GcmCryptor class.
+ *
+ * @author Simon Templer
+ */
+class GcmCryptorTest {
+
+  @Test
+  void testEncryptDecrypt() {
+    GcmCryptor c = new GcmCryptor()
+
+    String plain = "Hello world"
+    String password = "Goodbye"
+
+    String encrypted = c.encrypt(plain, password)
+    assert encrypted.startsWith(GcmCryptor.PREFIX)
+    assert !encrypted.contains(plain)
+
+    // unique IV per value
+    assert encrypted != c.encrypt(plain, password)
+
+    // decrypt with different instance
+    assert plain == new GcmCryptor().decrypt(encrypted, password)
+  }
+
+  @Test
+  void testSaltPerInstance() {
+    String password = "Goodbye"
+
+    def salt = { String encrypted -> encrypted.split(':')[1] }
+
+    GcmCryptor c = new GcmCryptor()
+    assert salt(c.encrypt('a', password)) == salt(c.encrypt('b', password))
+    assert salt(c.encrypt('a', password)) != salt(new GcmCryptor().encrypt('a', password))
+  }
+
+  @Test
+  void testGivenSalt() {
+    String encrypted = new GcmCryptor().encrypt('a', 'Goodbye')
+    String salt = GcmCryptor.getSalt(encrypted)
+    assert salt
+
+    GcmCryptor c = new GcmCryptor(null, salt)
+    String other = c.encrypt('b', 'Goodbye')
+    assert salt == GcmCryptor.getSalt(other)
+    assert 'b' == new GcmCryptor().decrypt(other, 'Goodbye')
+
+    assert GcmCryptor.getSalt('plain') == null
+  }
+
+  @Test
+  void testWrongPassword() {
+    String encrypted = new GcmCryptor().encrypt("Hello world", "Goodbye")
+
+    try {
+      new GcmCryptor().decrypt(encrypted, "Hello")
+      assert false : 'Decryption with wrong password should fail'
+    } catch (Exception e) {
+      // expected
+    }
+  }
+
+  @Test
+  void testFallback() {
+    Cryptor legacy = [
+      encrypt: { String plain, String password -> plain.reverse() },
+      decrypt: { String encrypted, String password -> encrypted.reverse() }
+    ] as Cryptor
+
+    GcmCryptor c = new GcmCryptor(legacy)
+    assert 'Hello world' == c.decrypt(legacy.encrypt('Hello world', 'Goodbye'), 'Goodbye')
+    assert 'Hello world' == c.decrypt(c.encrypt('Hello world', 'Goodbye'), 'Goodbye')
+  }
+
+  @Test
+  void testMatches() {
+    GcmCryptor c = new GcmCryptor()
+    String encrypted = c.encrypt("Hello world", "Goodbye")
+
+    GcmCryptor other = new GcmCryptor()
+    assert other.matches("Hello world", encrypted, "Goodbye")
+    assert !other.matches("Hello World", encrypted, "Goodbye")
+    assert !other.matches("Hello world", encrypted, "Hello")
+    assert !other.matches("Hello world", "gcm1:invalid", "Goodbye")
+  }
+
+  @Test
+  void testWithoutDigest() {
+    String encrypted = new GcmCryptor().encrypt("Hello world", "Goodbye")
+    def parts = encrypted.split(':')
+    String withoutDigest = [parts[0], parts[1], parts[3]].join(':')
+
+    GcmCryptor c = new GcmCryptor()
+    assert "Hello world" == c.decrypt(withoutDigest, "Goodbye")
+    assert c.matches("Hello world", withoutDigest, "Goodbye")
+  }
+
+  @Test
+  void testConcurrentUse() {
+    GcmCryptor.clearKeys()
+    GcmCryptor c = new GcmCryptor()
+
+    def pool = Executors.newFixedThreadPool(8)
+    try {
+      def futures = (1..32).collect { int i ->
+        pool.submit({ c.decrypt(c.encrypt("value $i", 'Goodbye'), 'Goodbye') } as Callable)
+      }
+      futures.eachWithIndex { f, int i ->
+        assert "value ${i + 1}" == f.get()
+      }
+    } finally {
+      pool.shutdown()
+    }
+
+    String encrypted = c.encrypt('Hello world', 'Goodbye')
+    GcmCryptor.clearKeys()
+    assert 'Hello world' == new GcmCryptor().decrypt(encrypted, 'Goodbye')
+  }
+
+  @Test
+  void testDecryptWithDerivedKey() {
+    // values without digest are encrypted directly with the PBKDF2 derived key
+    byte[] salt = new byte[16]
+    new Random(42).nextBytes(salt)
+    byte[] iv = new byte[12]
+    new Random(43).nextBytes(iv)
+
+    def spec = new PBEKeySpec('Goodbye'.toCharArray(), salt, 100000, 256)
+    byte[] key = SecretKeyFactory.getInstance('PBKDF2WithHmacSHA256').generateSecret(spec).encoded
+    Cipher cipher = Cipher.getInstance('AES/GCM/NoPadding')
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, 'AES'), new GCMParameterSpec(128, iv))
+    byte[] data = (iv.toList() + cipher.doFinal('Hello world'.getBytes('UTF-8')).toList()) as byte[]
+
+    Base64.Encoder encoder = Base64.encoder
+    String encrypted = GcmCryptor.PREFIX + encoder.encodeToString(salt) + ':' + encoder.encodeToString(data)
+    assert 'Hello world' == new GcmCryptor().decrypt(encrypted, 'Goodbye')
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.util
+
+import static org.junit.Assert.*
+
+import java.util.function.Supplier
+
+import org.junit.Test
+
+/**
+ * Tests for FileAccessRecorder class.
+ *
+ * @author Simon Templer
+ */
+class FileAccessRecorderTest {
+
+  @Test
+  void testRecording() {
+    FileAccessRecorder.accessed(new File('ignored'))
+
+    FileAccessRecorder.Recording outer = FileAccessRecorder.start()
+    FileAccessRecorder.accessed(new File('a'))
+
+    FileAccessRecorder.Recording inner = FileAccessRecorder.start()
+    FileAccessRecorder.accessed(new File('b'))
+    inner.close()
+
+    FileAccessRecorder.accessed(new File('c'))
+    outer.close()
+
+    FileAccessRecorder.accessed(new File('d'))
+
+    assertNull(FileAccessRecorder.current())
+    assertEquals(['a', 'b', 'c'] as Set, outer.files*.name as Set)
+    assertEquals(['b'] as Set, inner.files*.name as Set)
+  }
+
+  @Test
+  void testConcurrentRecordings() {
+    Map<Integer, Set<String>> recorded = [:].asSynchronized()
+    def threads = (1..4).collect { int t ->
+      Thread.start {
+        FileAccessRecorder.Recording recording = FileAccessRecorder.start()
+        try {
+          100.times { int i ->
+            FileAccessRecorder.accessed(new File("$t-$i"))
+          }
+        } finally {
+          recording.close()
+        }
+        recorded[t] = recording.files*.name as Set
+      }
+    }
+    threads*.join()
+
+    (1..4).each { int t ->
+      assertEquals((0..<100).collect { "$t-$it".toString() } as Set, recorded[t])
+    }
+  }
+
+  @Test
+  void testWithRecording() {
+    FileAccessRecorder.Recording recording = FileAccessRecorder.start()
+    try {
+      Thread.start {
+        FileAccessRecorder.accessed(new File('ignored'))
+        FileAccessRecorder.withRecording(recording, {
+          FileAccessRecorder.accessed(new File('a'))
+        } as Supplier)
+        FileAccessRecorder.accessed(new File('ignored'))
+      }.join()
+    } finally {
+      recording.close()
+    }
+
+    assertEquals(['a'] as Set, recording.files*.name as Set)
+  }
+}
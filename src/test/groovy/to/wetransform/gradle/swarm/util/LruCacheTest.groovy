@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.util
+
+import static org.junit.Assert.*
+
+import org.junit.Test
+
+/**
+ * Tests for LruCache class.
+ *
+ * @author Simon Templer
+ */
+class LruCacheTest {
+
+  @Test
+  void testStats() {
+    def cache = new LruCache<String, String>(10)
+
+    assertEquals('A', cache.computeIfAbsent('a') { it.toUpperCase() })
+    assertEquals('A', cache.computeIfAbsent('a') { fail('Value should be cached') })
+    assertEquals('B', cache.computeIfAbsent('b') { it.toUpperCase() })
+
+    def stats = cache.stats
+    assertEquals(1, stats.hits)
+    assertEquals(2, stats.misses)
+    assertEquals(0, stats.evictions)
+    assertEquals(2, stats.size)
+    assertEquals(1 / 3d, stats.hitRate, 0.001d)
+  }
+
+  @Test
+  void testEvictLeastRecentlyUsed() {
+    def cache = new LruCache<Integer, Integer>(3)
+    def compute = { Integer key -> key * 2 }
+
+    cache.computeIfAbsent(1, compute)
+    cache.computeIfAbsent(2, compute)
+    cache.computeIfAbsent(3, compute)
+    // access 1 so 2 is the least recently used
+    cache.computeIfAbsent(1, compute)
+    cache.computeIfAbsent(4, compute)
+
+    assertEquals(3, cache.size())
+    assertEquals(1, cache.stats.evictions)
+
+    int misses = cache.stats.misses
+    cache.computeIfAbsent(1, compute)
+    assertEquals(misses, cache.stats.misses)
+    cache.computeIfAbsent(2, compute)
+    assertEquals(misses + 1, cache.stats.misses)
+  }
+
+  @Test
+  void testRemove() {
+    def cache = new LruCache<String, String>(10)
+    def value = cache.computeIfAbsent('a') { 'first' }
+
+    assertFalse(cache.remove('a', 'other'))
+    assertTrue(cache.remove('a', value))
+    assertEquals('second', cache.computeIfAbsent('a') { 'second' })
+  }
+}
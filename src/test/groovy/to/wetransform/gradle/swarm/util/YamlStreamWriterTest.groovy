@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 wetransform GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package to.wetransform.gradle.swarm.util
+
+import static org.junit.Assert.*
+
+import org.junit.Test
+import org.yaml.snakeyaml.DumperOptions
+import org.yaml.snakeyaml.Yaml
+
+/**
+ * Tests for YamlStreamWriter class.
+ *
+ * @author Simon Templer
+ */
+class YamlStreamWriterTest {
+
+  private static DumperOptions options() {
+    DumperOptions options = new DumperOptions()
+    options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK)
+    options
+  }
+
+  private static void assertSameAsDump(Object object) {
+    String expected = new Yaml(options()).dump(object)
+
+    def yaml = new YamlStreamWriter(options())
+    2.times {
+      // also checks the writer can be reused
+      def writer = new StringWriter()
+      yaml.write(object, writer)
+      assertEquals(expected, writer.toString())
+    }
+  }
+
+  @Test
+  void testScalars() {
+    assertSameAsDump([
+      string: 'Hello',
+      quoted: 'true',
+      number: '12',
+      colon: 'key: value',
+      multiline: 'line1\nline2\n',
+      integer: 12,
+      decimal: 1.5,
+      bool: false,
+      empty: null,
+      date: new Date(0),
+      (null): 'null key',
+      (1): 'integer key'
+    ])
+  }
+
+  @Test
+  void testCollections() {
+    assertSameAsDump([
+      services: [
+        web: [image: 'nginx', ports: ['80:80', '443:443']],
+        db: [image: 'postgres', environment: [:], volumes: []]
+      ],
+      list: [[a: 1], [1, 2], 'x', null],
+      set: ['a', 'b'] as LinkedHashSet
+    ])
+  }
+
+  @Test
+  void testSharedAndRecursive() {
+    def shared = [x: 1]
+    def list = ['a', 'b']
+    def recursive = [:]
+    recursive.self = recursive
+
+    assertSameAsDump([
+      first: shared,
+      second: shared,
+      list: list,
+      nested: [list: list],
+      recursive: recursive
+    ])
+  }
+}